@@ -0,0 +1,277 @@
+package net.milgar.joox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a JMH result file against a baseline one and fails on
+ * regressions, so that a benchmark run can gate a change:
+ *
+ * <pre>
+ * java -cp out net.milgar.joox.BenchCompare baseline.json bench.json [tolerance %]
+ * </pre>
+ *
+ * A benchmark regresses when its score got worse by more than the tolerance,
+ * 5% by default, and by more than the error margins of both runs together.
+ * With -prof gc, allocated bytes per operation are compared the same way.
+ * A benchmark of the baseline that is missing from the current run fails
+ * too, so that deleting or renaming one cannot pass the gate. Exits with 1
+ * on any regression or missing benchmark and 2 if the files cannot be read.
+ */
+public class BenchCompare {
+	private static final String ALLOCATION = "\u00b7gc.alloc.rate.norm";
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: BenchCompare <baseline.json> <current.json> [tolerance %]");
+			System.exit(2);
+		}
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.05;
+		Map<String, Map<String, Object>> baseline;
+		Map<String, Map<String, Object>> current;
+		try {
+			baseline = load(args[0]);
+			current = load(args[1]);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			System.exit(2);
+			return;
+		}
+
+		int regressions = 0;
+		for (Map.Entry<String, Map<String, Object>> entry : current.entrySet()) {
+			Map<String, Object> before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.println("new\t" + entry.getKey());
+				continue;
+			}
+			Map<String, Object> after = entry.getValue();
+			// Throughput is better higher, every other mode lower.
+			boolean higherIsBetter = "thrpt".equals(after.get("mode"));
+			if (compare(entry.getKey(), metric(before, null), metric(after, null), higherIsBetter, tolerance)) {
+				regressions++;
+			}
+			Map<String, Object> allocationBefore = metric(before, ALLOCATION);
+			Map<String, Object> allocationAfter = metric(after, ALLOCATION);
+			if (allocationBefore != null && allocationAfter != null && compare(entry.getKey() + " allocation",
+					allocationBefore, allocationAfter, false, tolerance)) {
+				regressions++;
+			}
+		}
+		int missing = 0;
+		for (String name : baseline.keySet()) {
+			if (!current.containsKey(name)) {
+				System.out.println("MISSING\t" + name);
+				missing++;
+			}
+		}
+		System.out.println(regressions + " regression(s), " + missing + " missing");
+		System.exit(regressions + missing > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Prints the change of one metric.
+	 *
+	 * @return True if it regressed.
+	 */
+	private static boolean compare(String name, Map<String, Object> before, Map<String, Object> after,
+			boolean higherIsBetter, double tolerance) {
+		double scoreBefore = number(before.get("score"));
+		double scoreAfter = number(after.get("score"));
+		double margin = number(before.get("scoreError")) + number(after.get("scoreError"));
+		double worse = higherIsBetter ? scoreBefore - scoreAfter : scoreAfter - scoreBefore;
+		boolean regressed = worse > Math.abs(scoreBefore) * tolerance && worse > margin;
+		double change = scoreBefore == 0 ? 0 : (scoreAfter - scoreBefore) / Math.abs(scoreBefore) * 100;
+		System.out.println(String.format(Locale.ROOT, "%s\t%s\t%.3f -> %.3f %s (%+.1f%%)",
+				regressed ? "WORSE" : "ok", name, scoreBefore, scoreAfter, after.get("scoreUnit"), change));
+		return regressed;
+	}
+
+	/**
+	 * @return The primary metric of a result, or the secondary one of the
+	 *         given name, null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> metric(Map<String, Object> result, String secondary) {
+		if (secondary == null) {
+			return (Map<String, Object>) result.get("primaryMetric");
+		}
+		Map<String, Object> secondaries = (Map<String, Object>) result.get("secondaryMetrics");
+		return secondaries == null ? null : (Map<String, Object>) secondaries.get(secondary);
+	}
+
+	private static double number(Object value) {
+		// JMH writes "NaN" as a string when a run has no error margin.
+		return value instanceof Double ? (Double) value : 0;
+	}
+
+	/**
+	 * @return Results of a JMH JSON file by benchmark name and parameters.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Map<String, Object>> load(String path) throws IOException {
+		String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+		Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+		for (Object item : (List<Object>) new Parser(json).parse()) {
+			Map<String, Object> result = (Map<String, Object>) item;
+			StringBuilder name = new StringBuilder((String) result.get("benchmark"));
+			Map<String, Object> params = (Map<String, Object>) result.get("params");
+			if (params != null) {
+				for (Map.Entry<String, Object> param : params.entrySet()) {
+					name.append(' ').append(param.getKey()).append('=').append(param.getValue());
+				}
+			}
+			results.put(name.toString(), result);
+		}
+		return results;
+	}
+
+	/**
+	 * Just enough of JSON for JMH's result files: objects become maps,
+	 * arrays lists and numbers doubles.
+	 */
+	private static class Parser {
+		private String text;
+		private int position;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Object parse() {
+			Object value = this.value();
+			this.skipSpace();
+			if (this.position != this.text.length()) {
+				throw this.error("Trailing characters");
+			}
+			return value;
+		}
+
+		private Object value() {
+			this.skipSpace();
+			if (this.position >= this.text.length()) {
+				throw this.error("Unexpected end");
+			}
+			char c = this.text.charAt(this.position);
+			if (c == '{') {
+				Map<String, Object> object = new LinkedHashMap<>();
+				this.position++;
+				if (!this.consume('}')) {
+					do {
+						this.skipSpace();
+						String key = this.string();
+						this.expect(':');
+						object.put(key, this.value());
+					} while (this.consume(','));
+					this.expect('}');
+				}
+				return object;
+			} else if (c == '[') {
+				List<Object> array = new ArrayList<>();
+				this.position++;
+				if (!this.consume(']')) {
+					do {
+						array.add(this.value());
+					} while (this.consume(','));
+					this.expect(']');
+				}
+				return array;
+			} else if (c == '"') {
+				return this.string();
+			} else if (this.text.startsWith("true", this.position)) {
+				this.position += 4;
+				return Boolean.TRUE;
+			} else if (this.text.startsWith("false", this.position)) {
+				this.position += 5;
+				return Boolean.FALSE;
+			} else if (this.text.startsWith("null", this.position)) {
+				this.position += 4;
+				return null;
+			}
+			int start = this.position;
+			while (this.position < this.text.length()
+					&& "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0) {
+				this.position++;
+			}
+			if (start == this.position) {
+				throw this.error("Unexpected character '" + c + "'");
+			}
+			return Double.parseDouble(this.text.substring(start, this.position));
+		}
+
+		private String string() {
+			if (!this.consume('"')) {
+				throw this.error("Expected a string");
+			}
+			StringBuilder out = new StringBuilder();
+			while (this.position < this.text.length()) {
+				char c = this.text.charAt(this.position++);
+				if (c == '"') {
+					return out.toString();
+				}
+				if (c == '\\') {
+					char escaped = this.text.charAt(this.position++);
+					switch (escaped) {
+					case 'n':
+						out.append('\n');
+						break;
+					case 't':
+						out.append('\t');
+						break;
+					case 'r':
+						out.append('\r');
+						break;
+					case 'b':
+						out.append('\b');
+						break;
+					case 'f':
+						out.append('\f');
+						break;
+					case 'u':
+						out.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+						this.position += 4;
+						break;
+					default:
+						out.append(escaped);
+					}
+				} else {
+					out.append(c);
+				}
+			}
+			throw this.error("Unterminated string");
+		}
+
+		private boolean consume(char c) {
+			this.skipSpace();
+			if (this.position < this.text.length() && this.text.charAt(this.position) == c) {
+				this.position++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) {
+			if (!this.consume(c)) {
+				throw this.error("Expected '" + c + "'");
+			}
+		}
+
+		private void skipSpace() {
+			while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+				this.position++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + this.position);
+		}
+	}
+
+}
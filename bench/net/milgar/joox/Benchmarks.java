@@ -0,0 +1,32 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Shared set up for the benchmarks.
+ */
+class Benchmarks {
+
+	/**
+	 * @return A cantus firmus of random notes, repeated at the same seed.
+	 */
+	static List<Integer> randomCantusFirmus(int length, SplittableRandom rnd) {
+		List<Integer> cantusFirmus = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			cantusFirmus.add(rnd.nextInt(11) + 1);
+		}
+		return cantusFirmus;
+	}
+
+	/**
+	 * @return An evaluated population with the defaults App uses.
+	 */
+	static Population population(int size, List<Integer> cantusFirmus, SplittableRandom rnd) {
+		Population population = new Population(size, Utils.Species.First, cantusFirmus, 0.9f, 0.02f, rnd);
+		population.evaluate();
+		return population;
+	}
+
+}
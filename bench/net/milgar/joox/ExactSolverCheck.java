@@ -0,0 +1,104 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks the branch and bound of ExactSolver against brute force: for short
+ * random cantus firmi, every contrapunctus is scored with
+ * FirstSpecies.calculateFitness, and the best scores must equal those of
+ * ExactSolver.solve(count). Scores are compared in tenths, as the solver
+ * keeps them: equal scores summed in another order may differ in the last
+ * bit of a float. Not a JMH benchmark.
+ *
+ * <pre>
+ * java -cp out net.milgar.joox.ExactSolverCheck [cantus firmi per length] [longest length]
+ * </pre>
+ *
+ * Exits with 1 on any difference.
+ */
+public class ExactSolverCheck {
+	private static final int NOTE_COUNT = 17;
+	// Solutions compared per cantus firmus, so that pruning of the runners-up
+	// is checked too.
+	private static final int TOP = 5;
+
+	public static void main(String[] args) {
+		int cantusCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int maxLength = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		SplittableRandom rnd = new SplittableRandom(42);
+		int failures = 0;
+		int checked = 0;
+		for (int length = 3; length <= maxLength; length++) {
+			for (int c = 0; c < cantusCount; c++) {
+				List<Integer> cantusFirmus = Benchmarks.randomCantusFirmus(length, rnd);
+				int[] expected = tenths(bruteForce(cantusFirmus));
+				ExactSolver solver = new ExactSolver(cantusFirmus);
+				List<Chromosome> solutions = solver.solve(TOP);
+				int[] actual = new int[solutions.size()];
+				for (int i = 0; i < actual.length; i++) {
+					Chromosome solution = solutions.get(i);
+					// The solver's own bookkeeping must agree with the real score.
+					actual[i] = Math.round(FirstSpecies.calculateFitness(solution, cantusFirmus) * 10);
+				}
+				checked++;
+				if (!Arrays.equals(expected, actual) || !solver.isProvenOptimal()) {
+					failures++;
+					System.out.println("Differs for " + cantusFirmus + ": brute force " + Arrays.toString(expected)
+							+ ", solver " + Arrays.toString(actual));
+				}
+			}
+		}
+		System.out.println(checked + " cantus firmi checked, " + failures + " differ");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static int[] tenths(float[] scores) {
+		int[] tenths = new int[scores.length];
+		for (int i = 0; i < scores.length; i++) {
+			tenths[i] = Math.round(scores[i] * 10);
+		}
+		return tenths;
+	}
+
+	/**
+	 * @return The TOP best scores of all contrapuncti, best first.
+	 */
+	private static float[] bruteForce(List<Integer> cantusFirmus) {
+		int length = cantusFirmus.size();
+		float[] best = new float[TOP];
+		Arrays.fill(best, Float.NEGATIVE_INFINITY);
+		List<Integer> genes = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			genes.add(1);
+		}
+		Chromosome chromosome = new Chromosome(genes, cantusFirmus);
+		int[] notes = new int[length];
+		Arrays.fill(notes, 1);
+		while (true) {
+			float fitness = FirstSpecies.calculateFitness(chromosome, cantusFirmus);
+			if (fitness > best[TOP - 1]) {
+				int i = TOP - 1;
+				for (; i > 0 && best[i - 1] < fitness; i--) {
+					best[i] = best[i - 1];
+				}
+				best[i] = fitness;
+			}
+			// Next contrapunctus, counting in base 17.
+			int position = 0;
+			while (position < length && notes[position] == NOTE_COUNT) {
+				notes[position] = 1;
+				chromosome.setGene(position, 1);
+				position++;
+			}
+			if (position == length) {
+				return best;
+			}
+			notes[position]++;
+			chromosome.setGene(position, notes[position]);
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package net.milgar.joox;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scores a block of genomes with FitnessBatch and one at a time. Run with
+ * -jvmArgs --add-modules=jdk.incubator.vector for the vector kernel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FitnessBatchBenchmark {
+
+	@Param({ "11", "40", "100" })
+	public int cantusLength;
+
+	@Param({ "256" })
+	public int genomes;
+
+	private List<Integer> cantusFirmus;
+	private Chromosome[] chromosomes;
+	private FitnessBatch batch;
+	private float[] fitness;
+
+	@Setup
+	public void setUp() {
+		SplittableRandom rnd = new SplittableRandom(42);
+		this.cantusFirmus = Benchmarks.randomCantusFirmus(this.cantusLength, rnd);
+		this.chromosomes = new Chromosome[this.genomes];
+		this.batch = new FitnessBatch(this.cantusFirmus, this.genomes);
+		for (int i = 0; i < this.genomes; i++) {
+			this.chromosomes[i] = new Chromosome(this.cantusFirmus, rnd);
+			this.batch.set(i, this.chromosomes[i]);
+		}
+		this.fitness = new float[this.genomes];
+	}
+
+	@Benchmark
+	public float[] batch() {
+		this.batch.score(this.genomes, this.fitness);
+		return this.fitness;
+	}
+
+	@Benchmark
+	public float[] oneAtATime() {
+		for (int i = 0; i < this.genomes; i++) {
+			this.fitness[i] = FirstSpecies.calculateFitness(this.chromosomes[i], this.cantusFirmus);
+		}
+		return this.fitness;
+	}
+
+}
@@ -0,0 +1,56 @@
+package net.milgar.joox;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scores one contrapunctus, from scratch and after a mutation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FitnessBenchmark {
+
+	@Param({ "11", "100", "1000" })
+	public int cantusLength;
+
+	private List<Integer> cantusFirmus;
+	private Chromosome chromosome;
+	private SplittableRandom rnd;
+
+	@Setup
+	public void setUp() {
+		this.rnd = new SplittableRandom(42);
+		this.cantusFirmus = Benchmarks.randomCantusFirmus(this.cantusLength, this.rnd);
+		this.chromosome = new Chromosome(this.cantusFirmus, this.rnd);
+		this.chromosome.getFitness(Utils.Species.First);
+	}
+
+	@Benchmark
+	public float calculateFitness() {
+		return FirstSpecies.calculateFitness(this.chromosome, this.cantusFirmus);
+	}
+
+	@Benchmark
+	public float mutateAndRescore() {
+		this.chromosome.mutate(this.rnd);
+		return this.chromosome.getFitness(Utils.Species.First);
+	}
+
+}
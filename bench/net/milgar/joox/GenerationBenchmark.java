@@ -0,0 +1,81 @@
+package net.milgar.joox;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creates generations by swapping two populations, as GeneticAlgorithm does,
+ * of chromosomes and packed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+
+	@Param({ "50", "1000", "10000" })
+	public int populationSize;
+
+	@Param({ "11" })
+	public int cantusLength;
+
+	private Population current;
+	private Population next;
+	private PackedPopulation packedCurrent;
+	private PackedPopulation packedNext;
+
+	@Setup
+	public void setUp() {
+		SplittableRandom rnd = new SplittableRandom(42);
+		this.current = Benchmarks.population(this.populationSize,
+				Benchmarks.randomCantusFirmus(this.cantusLength, rnd), rnd);
+		this.next = this.current.createNextGeneration();
+		// The same members at the same seed.
+		rnd = new SplittableRandom(42);
+		List<Integer> cantusFirmus = Benchmarks.randomCantusFirmus(this.cantusLength, rnd);
+		this.packedCurrent = new PackedPopulation(this.populationSize, Utils.Species.First, cantusFirmus, 0.9f, 0.02f,
+				rnd);
+		this.packedCurrent.evaluate();
+		this.packedNext = this.packedCurrent.copy();
+	}
+
+	@Benchmark
+	public Population createNextGeneration() {
+		this.current.createNextGeneration(this.next);
+		Population previous = this.current;
+		this.current = this.next;
+		this.next = previous;
+		return this.current;
+	}
+
+	@Benchmark
+	public PackedPopulation createNextGenerationPacked() {
+		this.packedCurrent.createNextGeneration(this.packedNext);
+		PackedPopulation previous = this.packedCurrent;
+		this.packedCurrent = this.packedNext;
+		this.packedNext = previous;
+		return this.packedCurrent;
+	}
+
+	@Benchmark
+	public Population createNextGenerationAllocating() {
+		this.current = this.current.createNextGeneration();
+		return this.current;
+	}
+
+}
@@ -0,0 +1,112 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Counts the fitness evaluations the genetic algorithm needs to reach the
+ * best score of a cantus firmus, for each way of setting its operators. Not
+ * a JMH benchmark: evaluations, not time, are what it measures.
+ * 
+ * <pre>
+ * java -cp out net.milgar.joox.OperatorHarness [runs per cantus] [generations]
+ * </pre>
+ */
+public class OperatorHarness {
+
+	private static class Variant {
+		private String name;
+		private float mutationRate;
+		private Consumer<GeneticAlgorithm> setUp;
+
+		Variant(String name, float mutationRate, Consumer<GeneticAlgorithm> setUp) {
+			this.name = name;
+			this.mutationRate = mutationRate;
+			this.setUp = setUp;
+		}
+	}
+
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int generations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int range = FirstSpecies.DEFAULT_MUTATION_RANGE;
+
+		// The settings of App first, then each kind of operator control on
+		// top of them, then fixed rates found by hand to compare against.
+		List<Variant> variants = new ArrayList<>();
+		variants.add(new Variant("fixed rates", 0.02f, ga -> {
+		}));
+		variants.add(new Variant("mutation range " + range, 0.02f, ga -> ga.setMutationRange(range)));
+		variants.add(new Variant("progress", 0.02f,
+				ga -> ga.setRateControl(new ProgressRateControl(1.05f, 0.02f, 1f))));
+		variants.add(new Variant("progress, crossover 0.5-0.95", 0.02f, ga -> {
+			ProgressRateControl control = new ProgressRateControl(1.05f, 0.02f, 1f);
+			control.setCrossOverRange(0.5f, 0.95f);
+			ga.setRateControl(control);
+		}));
+		variants.add(new Variant("diversity", 0.02f,
+				ga -> ga.setRateControl(new DiversityRateControl(2f, 0.02f, 2f))));
+		variants.add(new Variant("diversity, crossover 0.5-0.95", 0.02f, ga -> {
+			DiversityRateControl control = new DiversityRateControl(2f, 0.02f, 2f);
+			control.setCrossOverRange(0.5f, 0.95f);
+			ga.setRateControl(control);
+		}));
+		variants.add(new Variant("self-adaptive", 0.02f, ga -> ga.setSelfAdaptiveMutation(true)));
+		variants.add(new Variant("self-adaptive, range " + range, 0.02f, ga -> {
+			ga.setSelfAdaptiveMutation(true);
+			ga.setMutationRange(range);
+		}));
+		variants.add(new Variant("mutation rate 1", 1f, ga -> {
+		}));
+		variants.add(new Variant("mutation rate 1, range " + range, 1f, ga -> ga.setMutationRange(range)));
+
+		// The cantus firmi of App and a few random ones, each with the best
+		// score it allows as the target.
+		List<List<Integer>> cantusFirmi = new ArrayList<>();
+		cantusFirmi.add(Arrays.asList(5, 7, 6, 5, 8, 7, 9, 8, 7, 6, 5));
+		cantusFirmi.add(Arrays.asList(6, 4, 5, 4, 2, 9, 8, 6, 7, 6));
+		cantusFirmi.add(Arrays.asList(7, 8, 9, 7, 5, 6, 7, 11, 9, 7, 8, 7));
+		SplittableRandom rnd = new SplittableRandom(42);
+		for (int i = 0; i < 3; i++) {
+			cantusFirmi.add(Benchmarks.randomCantusFirmus(11, rnd));
+		}
+		float[] targets = new float[cantusFirmi.size()];
+		for (int c = 0; c < targets.length; c++) {
+			targets[c] = new ExactSolver(cantusFirmi.get(c)).solve().getFitness(Utils.Species.First);
+		}
+
+		System.out.println("variant\tsolved\tmedian evaluations of solved\tmean evaluations of solved");
+		for (Variant variant : variants) {
+			long[] evaluations = new long[cantusFirmi.size() * runs];
+			int solved = 0;
+			long solvedSum = 0;
+			for (int c = 0; c < cantusFirmi.size(); c++) {
+				for (int r = 0; r < runs; r++) {
+					GeneticAlgorithm ga = new GeneticAlgorithm(50, generations, cantusFirmi.get(c),
+							Utils.Species.First, 0.9f, variant.mutationRate);
+					// Every variant sees the same seeds.
+					ga.setSeed(1000L * c + r);
+					ga.addTerminationCriterion(new TargetFitness(targets[c]));
+					variant.setUp.accept(ga);
+					ga.run();
+					long count = ga.getCurrentPopulation().getEvaluationCount();
+					if (ga.getBestChromosome().getFitness(Utils.Species.First) >= targets[c]) {
+						evaluations[solved++] = count;
+						solvedSum += count;
+					}
+				}
+			}
+			// The solve rate says how often a variant gets there, the median
+			// and mean how fast when it does.
+			Arrays.sort(evaluations, 0, solved);
+			System.out.println(String.format(Locale.ROOT, "%s\t%d/%d\t%s\t%s", variant.name, solved,
+					evaluations.length, solved == 0 ? "-" : Long.toString(evaluations[solved / 2]),
+					solved == 0 ? "-" : String.format(Locale.ROOT, "%.0f", (double) solvedSum / solved)));
+		}
+	}
+
+}
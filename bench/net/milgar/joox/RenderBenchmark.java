@@ -0,0 +1,45 @@
+package net.milgar.joox;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders a chromosome to LilyPond source.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+	@Param({ "11", "100", "1000" })
+	public int cantusLength;
+
+	private Chromosome chromosome;
+
+	@Setup
+	public void setUp() {
+		SplittableRandom rnd = new SplittableRandom(42);
+		this.chromosome = new Chromosome(Benchmarks.randomCantusFirmus(this.cantusLength, rnd), rnd);
+	}
+
+	@Benchmark
+	public String render() {
+		return Utils.render(1, this.chromosome, "2016-01-01 00:00:00 000", "joox", "Benchmark");
+	}
+
+}
@@ -0,0 +1,122 @@
+package net.milgar.joox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks LilypondRenderer and the render results of BatchComposer with stub
+ * shell scripts standing in for lilypond: one that succeeds, one that fails,
+ * one that hangs and one that writes a lot of output. Needs a POSIX sh. Not
+ * a JMH benchmark.
+ *
+ * <pre>
+ * java -cp out net.milgar.joox.RendererCheck
+ * </pre>
+ *
+ * Exits with 1 if any check fails.
+ */
+public class RendererCheck {
+	private static int failures;
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		File directory = Files.createTempDirectory("joox-render").toFile();
+		String ok = stub(directory, "ok.sh", "echo rendering \"$1\"; touch \"$1.pdf\"");
+		String fail = stub(directory, "fail.sh", "echo 'error: bad score' >&2; exit 1");
+		String hang = stub(directory, "hang.sh", "sleep 30");
+		// More than a pipe holds, which hangs a runner that does not drain it.
+		String chatty = stub(directory, "chatty.sh", "i=0; while [ $i -lt 20000 ]; do echo \"line $i of output\"; "
+				+ "i=$((i+1)); done");
+		String slow = stub(directory, "slow.sh", "sleep 1");
+		for (String name : new String[] { "a.ly", "b.ly", "c.ly", "d.ly" }) {
+			Files.write(new File(directory, name).toPath(), "\\version \"2.18.2\"\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (LilypondRenderer renderer = new LilypondRenderer(1, 2, TimeUnit.SECONDS)) {
+			renderer.setCommand(ok);
+			check("succeeding stub renders", renderer.render("a.ly", directory.getPath()).get());
+			check("output goes to the log", read(directory, "a.ly.log").contains("rendering a.ly"));
+			check("stub made its file", new File(directory, "a.ly.pdf").exists());
+
+			renderer.setCommand(fail);
+			check("failing stub reports failure", !renderer.render("b.ly", directory.getPath()).get());
+			check("error output goes to the log", read(directory, "b.ly.log").contains("error: bad score"));
+
+			renderer.setCommand(hang);
+			long start = System.nanoTime();
+			check("hanging stub times out", !renderer.render("c.ly", directory.getPath()).get());
+			check("timeout is kept", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+
+			renderer.setCommand(chatty);
+			check("chatty stub does not block", renderer.render("d.ly", directory.getPath()).get());
+		}
+
+		// Four runs of a second each, two at a time.
+		try (LilypondRenderer renderer = new LilypondRenderer(2, 10, TimeUnit.SECONDS)) {
+			renderer.setCommand(slow);
+			long start = System.nanoTime();
+			List<Future<Boolean>> scores = new ArrayList<>();
+			for (String name : new String[] { "a.ly", "b.ly", "c.ly", "d.ly" }) {
+				scores.add(renderer.render(name, directory.getPath()));
+			}
+			for (Future<Boolean> score : scores) {
+				score.get();
+			}
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			check("concurrency is capped (" + millis + " ms)", millis >= 1900 && millis < 3900);
+		}
+
+		// A failed render is reported in the results of a batch.
+		try (LilypondRenderer renderer = new LilypondRenderer(1, 2, TimeUnit.SECONDS)) {
+			renderer.setCommand(fail);
+			BatchComposer batch = new BatchComposer(cantus -> new ExactSolver(cantus).solve(), 1, 1);
+			batch.setRenderer(renderer);
+			StringWriter results = new StringWriter();
+			batch.run(new BufferedReader(new StringReader("5 7 6 5 8\n")), results,
+					directory.getPath() + File.separator);
+			check("batch reports the failed render", results.toString().contains("render failed"));
+
+			renderer.setCommand(ok);
+			results = new StringWriter();
+			batch.run(new BufferedReader(new StringReader("5 7 6 5 8\n")), results,
+					directory.getPath() + File.separator);
+			check("batch reports nothing on success", results.toString().trim().split("\t").length == 3);
+		}
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println(failures + " check(s) failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static String stub(File directory, String name, String body) throws IOException {
+		File script = new File(directory, name);
+		Files.write(script.toPath(), Arrays.asList("#!/bin/sh", body), StandardCharsets.UTF_8);
+		script.setExecutable(true);
+		return script.getPath();
+	}
+
+	private static String read(File directory, String name) throws IOException {
+		return new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "ok\t" : "FAILED\t") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+}
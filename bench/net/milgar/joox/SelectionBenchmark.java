@@ -0,0 +1,116 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Picks parents and sorts members of an evaluated population.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+	// Sorts per iteration of sort().
+	static final int SORT_BATCH = 1000;
+
+	@Param({ "50", "1000", "10000" })
+	public int populationSize;
+
+	private SplittableRandom rnd;
+	private Population population;
+	private List<Chromosome> members;
+	private float[] fitness;
+	private int[] parents;
+	private Selection tournament;
+
+	@Setup
+	public void setUp() {
+		this.rnd = new SplittableRandom(42);
+		this.population = Benchmarks.population(this.populationSize, Benchmarks.randomCantusFirmus(11, this.rnd),
+				this.rnd);
+		this.members = new ArrayList<>(this.population.getBestChromosomes(this.populationSize));
+		this.fitness = new float[this.populationSize];
+		for (int i = 0; i < this.fitness.length; i++) {
+			this.fitness[i] = this.members.get(i).getFitness(Utils.Species.First);
+		}
+		this.parents = new int[this.populationSize];
+		this.tournament = new TournamentSelection(2);
+	}
+
+	/**
+	 * Unsorted populations for sort(), one for each invocation of an
+	 * iteration. They share the evaluated members of the outer state's
+	 * population, each in its own shuffled order, so sorting only compares
+	 * cached fitness, as it does in a run, and the pool stays small.
+	 */
+	@State(Scope.Thread)
+	public static class Unsorted {
+		private Population[] pool = new Population[SORT_BATCH];
+		private int next;
+
+		@Setup(Level.Iteration)
+		public void shuffle(SelectionBenchmark benchmark) {
+			Population population = benchmark.population;
+			List<Chromosome> members = new ArrayList<>();
+			for (int i = 0; i < population.size(); i++) {
+				members.add(population.getMember(i));
+			}
+			List<Integer> cantusFirmus = members.get(0).getCantusFirmus();
+			SplittableRandom rnd = new SplittableRandom(42);
+			for (int k = 0; k < this.pool.length; k++) {
+				for (int i = members.size() - 1; i > 0; i--) {
+					Collections.swap(members, i, rnd.nextInt(i + 1));
+				}
+				this.pool[k] = new Population(Utils.Species.First, cantusFirmus, 0.9f, 0.02f, rnd, members);
+				this.pool[k].evaluate();
+			}
+			this.next = 0;
+		}
+	}
+
+	@Benchmark
+	public Chromosome[] tournementSelection() {
+		return Utils.tournementSelection(this.members, Utils.Species.First, this.rnd);
+	}
+
+	@Benchmark
+	public int[] tournamentBatch() {
+		this.tournament.select(this.fitness, this.parents, this.rnd);
+		return this.parents;
+	}
+
+	/**
+	 * Scores the time of a batch of SORT_BATCH sorts, each of a population
+	 * that has not been sorted yet.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 5, batchSize = SORT_BATCH)
+	@Measurement(iterations = 10, batchSize = SORT_BATCH)
+	public Population sort(Unsorted state) {
+		Population population = state.pool[state.next++];
+		population.sort();
+		return population;
+	}
+
+}
@@ -0,0 +1,354 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+
+/**
+ * Settings and breeding shared by Population and PackedPopulation. The next
+ * generation is bred over members seen as chromosomes, so every setting
+ * works the same whichever way the members are stored, and both draw the
+ * same random numbers from the same seed.
+ */
+abstract class AbstractPopulation<P extends AbstractPopulation<P>> {
+	// Fewest members worth handing to another thread; smaller populations
+	// are scored on the caller whatever the parallelism.
+	static final int MIN_CHUNK_SIZE = 256;
+	// Roles a member is asked for in while a generation is bred. A member is
+	// only used in its role until another is asked for in the same one, so
+	// a population may hand out one reused view per role.
+	static final int TARGET = 0;
+	static final int SECOND_TARGET = 1;
+	static final int SOURCE = 2;
+	static final int ROLE_COUNT = 3;
+
+	Utils.Species species;
+	List<Integer> cantusFirmus;
+	int maxSize;
+	SplittableRandom rnd;
+	float crossOverRate;
+	float mutationRate;
+	// Number of chunks members are scored in; 1 scores them on the caller.
+	int parallelism = 1;
+	// Runs the chunks, the common fork-join pool when not set.
+	Executor executor;
+	// Number of best members copied unchanged into the next generation.
+	int eliteCount = 1;
+	Selection selection = new TournamentSelection(2);
+	// Largest step a mutation moves a note by, 0 for any note.
+	int mutationRange;
+	// Whether every child mutates by its own, inherited rate instead of the
+	// population's.
+	boolean isSelfAdaptive;
+	// Fitness evaluations done for this population and the generations it
+	// was created from.
+	long evaluationCount;
+	// Records evaluations and phase latencies, when set.
+	EngineMetrics metrics;
+	// Index of the best member, or -1 until the members are evaluated.
+	int bestIndex = -1;
+	// Reused between generations.
+	private int[] parents;
+
+	AbstractPopulation(int maxSize, Utils.Species species, List<Integer> cantusFirmus, float crossOverRate,
+			float mutationRate, SplittableRandom rnd) {
+		this.maxSize = maxSize;
+		this.species = species;
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
+		this.crossOverRate = crossOverRate;
+		this.mutationRate = mutationRate;
+		this.rnd = rnd;
+	}
+
+	/**
+	 * @return The member at index. Changes to it change the population.
+	 */
+	abstract Chromosome getMember(int index);
+
+	/**
+	 * @return The member at index, for use in role until the next member
+	 *         asked for in that role.
+	 */
+	Chromosome getMember(int index, int role) {
+		return this.getMember(index);
+	}
+
+	/**
+	 * @return Number of members.
+	 */
+	abstract int size();
+
+	/**
+	 * Scores every member that is not evaluated.
+	 */
+	public abstract void evaluate();
+
+	public abstract Chromosome getBestChromosome();
+
+	/**
+	 * @return The count best members, best first.
+	 */
+	abstract List<Chromosome> selectBest(int count);
+
+	/**
+	 * @return Fitness of every member, by index. Only read until the members
+	 *         change.
+	 */
+	abstract float[] getFitnessSnapshot();
+
+	/**
+	 * @return A population of the same kind, settings and members, made
+	 *         without drawing random numbers.
+	 */
+	abstract P copy();
+
+	/**
+	 * @return Copies of the best count members, best first.
+	 */
+	public abstract List<Chromosome> getBestChromosomes(int count);
+
+	/**
+	 * Replaces the worst members with the given chromosomes.
+	 */
+	public abstract void immigrate(List<Chromosome> immigrants);
+
+	public abstract float getDiversity();
+
+	/**
+	 * @return Best, mean and worst fitness of the members, a copy of the best
+	 *         one and, if isDiversityIncluded, their diversity, NaN otherwise.
+	 */
+	abstract GenerationSummary summarize(int generation, boolean isDiversityIncluded);
+
+	/**
+	 * @return Best, mean and worst fitness of the members, a copy of the best
+	 *         one and their diversity.
+	 */
+	public GenerationSummary summarize(int generation) {
+		return this.summarize(generation, true);
+	}
+
+	/**
+	 * @return Number of chunks size members are scored in: at most
+	 *         parallelism, each of at least MIN_CHUNK_SIZE members, and at
+	 *         least one.
+	 */
+	int chunkCount(int size) {
+		return Math.max(1, Math.min(this.parallelism, size / MIN_CHUNK_SIZE));
+	}
+
+	/**
+	 * Passes the settings of this population on to the next generation.
+	 */
+	void copySettingsTo(P newPop) {
+		newPop.parallelism = this.parallelism;
+		newPop.executor = this.executor;
+		newPop.rnd = this.rnd;
+		newPop.eliteCount = this.eliteCount;
+		newPop.selection = this.selection;
+		newPop.metrics = this.metrics;
+		newPop.crossOverRate = this.crossOverRate;
+		newPop.mutationRate = this.mutationRate;
+		newPop.mutationRange = this.mutationRange;
+		newPop.isSelfAdaptive = this.isSelfAdaptive;
+	}
+
+	/**
+	 * Writes the next generation over the members of newPop, which must have
+	 * been created with the same settings. Nothing is allocated per member
+	 * for a Population, so two of them can be swapped back and forth for a
+	 * whole run.
+	 */
+	public void createNextGeneration(P newPop) {
+		if (newPop == this || newPop.size() != this.size()) {
+			throw new IllegalArgumentException("Next generation needs a separate population of the same size");
+		}
+		this.copySettingsTo(newPop);
+		newPop.bestIndex = -1;
+		this.evaluate();
+		newPop.evaluationCount = this.evaluationCount;
+
+		EngineEvents.BreedingEvent event = new EngineEvents.BreedingEvent();
+		event.begin();
+		long start = this.metrics != null ? System.nanoTime() : 0;
+
+		// Leave room for the best chromosomes.
+		int crossOverCount = 0;
+		while (crossOverCount < ((float) maxSize) * this.crossOverRate
+				&& crossOverCount + 2 + this.eliteCount <= maxSize) {
+			crossOverCount += 2;
+		}
+		int[] parents = this.selectParents(crossOverCount);
+
+		int size = 0;
+		while (size < crossOverCount) {
+			Chromosome childFirst = newPop.getMember(size, TARGET);
+			Chromosome childSecond = newPop.getMember(size + 1, SECOND_TARGET);
+			childFirst.copyFrom(this.getMember(parents[size], SOURCE));
+			childSecond.copyFrom(this.getMember(parents[size + 1], SOURCE));
+			Chromosome.crossOver(childFirst, childSecond, this.rnd);
+			size += 2;
+		}
+		if (this.eliteCount == 1) {
+			newPop.getMember(size++, TARGET).copyFrom(this.getBestChromosome());
+		} else {
+			for (Chromosome elite : this.selectBest(this.eliteCount)) {
+				newPop.getMember(size++, TARGET).copyFrom(elite);
+			}
+		}
+		for (; size < maxSize; size++) {
+			int index = rnd.nextInt(maxSize);
+			newPop.getMember(size, TARGET).copyFrom(this.getMember(index, SOURCE));
+		}
+		if (this.isSelfAdaptive) {
+			// The elites are kept as they are.
+			double learningRate = 1 / Math.sqrt(this.cantusFirmus.size());
+			for (int i = 0; i < maxSize; i++) {
+				if (i < crossOverCount || i >= crossOverCount + this.eliteCount) {
+					Chromosome child = newPop.getMember(i, TARGET);
+					child.adaptMutationRate(this.rnd, learningRate);
+					child.mutateGenes(this.rnd, this.mutationRange);
+				}
+			}
+		} else {
+			for (int i = 0; i < ((float) maxSize) * this.mutationRate; i++) {
+				int index = rnd.nextInt(maxSize);
+				newPop.getMember(index, TARGET).mutate(this.rnd, this.mutationRange);
+			}
+		}
+
+		if (this.metrics != null) {
+			this.metrics.recordLatency(EngineMetrics.Phase.Breeding, System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.populationSize = maxSize;
+			event.crossOverCount = crossOverCount;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Like createNextGeneration(P), for callers holding populations of either
+	 * kind.
+	 */
+	@SuppressWarnings("unchecked")
+	void createNextGenerationOver(AbstractPopulation<?> newPop) {
+		if (newPop.getClass() != this.getClass()) {
+			throw new IllegalArgumentException("Next generation needs a population of the same kind");
+		}
+		this.createNextGeneration((P) newPop);
+	}
+
+	/**
+	 * Picks count parents in one batch from a snapshot of the members'
+	 * fitness.
+	 */
+	private int[] selectParents(int count) {
+		EngineEvents.SelectionEvent event = new EngineEvents.SelectionEvent();
+		event.begin();
+		long start = this.metrics != null ? System.nanoTime() : 0;
+		if (this.parents == null || this.parents.length != count) {
+			this.parents = new int[count];
+		}
+		this.selection.select(this.getFitnessSnapshot(), this.parents, this.rnd);
+		if (this.metrics != null) {
+			this.metrics.recordLatency(EngineMetrics.Phase.Selection, System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.selection = this.selection.getClass().getSimpleName();
+			event.parentCount = count;
+			event.commit();
+		}
+		return this.parents;
+	}
+
+	/**
+	 * @return Number of fitness evaluations done for this population and the
+	 *         generations it was created from.
+	 */
+	public long getEvaluationCount() {
+		return this.evaluationCount;
+	}
+
+	void setEvaluationCount(long evaluationCount) {
+		this.evaluationCount = evaluationCount;
+	}
+
+	/**
+	 * Sets the rates the next generation is bred with.
+	 */
+	void setRates(float crossOverRate, float mutationRate) {
+		this.crossOverRate = crossOverRate;
+		this.mutationRate = mutationRate;
+	}
+
+	void setRandom(SplittableRandom rnd) {
+		this.rnd = rnd;
+	}
+
+	/**
+	 * Sets how the parents of the next generation are picked. Tournaments of
+	 * two are used by default.
+	 */
+	public void setSelection(Selection selection) {
+		this.selection = selection;
+	}
+
+	/**
+	 * Sets how many of the best members are copied unchanged into the next
+	 * generation.
+	 */
+	public void setEliteCount(int eliteCount) {
+		if (eliteCount < 0 || eliteCount > this.maxSize) {
+			throw new IllegalArgumentException("Elite count must be between 0 and " + this.maxSize + ": " + eliteCount);
+		}
+		this.eliteCount = eliteCount;
+	}
+
+	/**
+	 * Sets the metrics evaluations and phase latencies are recorded in.
+	 */
+	public void setMetrics(EngineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the largest step a mutation moves a note by, up or down.
+	 * FirstSpecies.DEFAULT_MUTATION_RANGE is a good start; 0, the default,
+	 * draws new notes from the whole range.
+	 */
+	public void setMutationRange(int mutationRange) {
+		if (mutationRange < 0) {
+			throw new IllegalArgumentException("Mutation range must not be negative: " + mutationRange);
+		}
+		this.mutationRange = mutationRange;
+	}
+
+	/**
+	 * Sets whether every child carries its own mutation rate, a chance per
+	 * note inherited from its parent and changed a little before each use,
+	 * instead of the population making mutationRate * size mutations of two
+	 * notes. Rates that breed better children spread with them.
+	 */
+	public void setSelfAdaptiveMutation(boolean isSelfAdaptive) {
+		this.isSelfAdaptive = isSelfAdaptive;
+	}
+
+	/**
+	 * Sets how many chunks the members are scored in at most. Chunks are
+	 * never smaller than MIN_CHUNK_SIZE members.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+}
@@ -1,21 +1,59 @@
 package net.milgar.joox;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.net.URL;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class App {
 
 	public static void main(String[] args) {
 
-		Integer[] intarray = new Integer[args.length];
+		// Options start with "--", everything else is a note of the cantus
+		// firmus.
+		List<Integer> intarray = new ArrayList<>();
+		Long seed = null;
+		String engine = "ga";
+		String batchInput = null;
+		String checkpointDir = null;
+		boolean resume = false;
+		boolean sweep = false;
+		String rateControl = null;
+		int mutationRange = FirstSpecies.DEFAULT_MUTATION_RANGE;
+		boolean selfAdaptive = false;
 		int i = 0;
 		for (String str : args) {
 			try {
-				intarray[i] = Integer.parseInt(str);
+				if (str.startsWith("--seed=")) {
+					seed = Long.parseLong(str.substring("--seed=".length()));
+				} else if (str.startsWith("--engine=")) {
+					engine = str.substring("--engine=".length());
+				} else if (str.startsWith("--batch=")) {
+					batchInput = str.substring("--batch=".length());
+				} else if (str.startsWith("--checkpoint=")) {
+					checkpointDir = str.substring("--checkpoint=".length());
+				} else if (str.equals("--resume")) {
+					resume = true;
+				} else if (str.equals("--sweep")) {
+					sweep = true;
+				} else if (str.startsWith("--rate-control=")) {
+					rateControl = str.substring("--rate-control=".length());
+				} else if (str.startsWith("--mutation-range=")) {
+					mutationRange = Integer.parseInt(str.substring("--mutation-range=".length()));
+				} else if (str.equals("--self-adaptive")) {
+					selfAdaptive = true;
+				} else if (str.startsWith("--")) {
+					throw new IllegalArgumentException("Unknown option: " + str);
+				} else {
+					intarray.add(Integer.parseInt(str));
+				}
 				i++;
 			} catch (NumberFormatException e) {
 				throw new IllegalArgumentException("Not a number: " + str + " at index " + i, e);
@@ -25,10 +63,18 @@ public class App {
 		String title = "SimpleAlgo";
 		String composer = "joox";
 
+		// OperatorHarness solves most cantus firmi, and in the fewest
+		// evaluations, with a mutation per member moving notes by up to a
+		// fifth.
 		float crossOverRate = 0.9f;
-		float mutationRate = 0.02f;
+		float mutationRate = 1f;
 		int populationSize = 50;
 		int iterationCount = 20;
+		int migrationInterval = 5;
+		int fitnessCacheSize = 10000;
+		int renderTimeoutSeconds = 120;
+		// Bounds the exact engine's search, a few seconds per cantus firmus.
+		long exactNodeLimit = 10000000;
 
 		Integer[][] cantusArrays = { { 5, 7, 6, 5, 8, 7, 9, 8, 7, 6, 5 }/* Dorian */,
 				{ 6, 4, 5, 4, 2, 9, 8, 6, 7, 6 }/* Phrygian */, { 7, 8, 9, 7, 5, 6, 7, 11, 9, 7, 8, 7 }/* Lydian */ };
@@ -38,9 +84,71 @@ public class App {
 		 * cantusFirmus.addAll(Arrays.asList(cantusArrays[currentCantusIndex]));
 		 */
 		List<Integer> cantusFirmus = new ArrayList<>();
-		cantusFirmus.addAll(Arrays.asList(intarray));
+		cantusFirmus.addAll(intarray);
 
-		Random rnd = new Random();
+		if (!engine.equals("ga") && !engine.equals("exact")) {
+			throw new IllegalArgumentException("Unknown engine: " + engine + ", expected ga or exact");
+		}
+		if (resume && checkpointDir == null) {
+			throw new IllegalArgumentException("--resume needs --checkpoint=<directory>");
+		}
+		if (rateControl != null && !rateControl.equals("progress") && !rateControl.equals("diversity")) {
+			throw new IllegalArgumentException(
+					"Unknown rate control: " + rateControl + ", expected progress or diversity");
+		}
+		if (rateControl != null && selfAdaptive) {
+			throw new IllegalArgumentException("--rate-control and --self-adaptive cannot be combined");
+		}
+		if (mutationRange < 0) {
+			throw new IllegalArgumentException("Mutation range must not be negative: " + mutationRange);
+		}
+		String operatorRateControl = rateControl;
+		int operatorMutationRange = mutationRange;
+		boolean operatorSelfAdaptive = selfAdaptive;
+
+		// Readable over JMX while the run goes on, e.g. from jconsole.
+		EngineMetrics metrics = new EngineMetrics();
+		metrics.register("joox");
+
+		if (batchInput != null) {
+			Function<List<Integer>, Chromosome> engineComposer;
+			if (engine.equals("exact")) {
+				engineComposer = cantus -> {
+					ExactSolver solver = new ExactSolver(cantus);
+					solver.setNodeLimit(exactNodeLimit);
+					Chromosome best = solver.solve();
+					if (!solver.isProvenOptimal()) {
+						System.out.println(cantus + ": not proven optimal, node limit of " + exactNodeLimit
+								+ " reached");
+					}
+					return best;
+				};
+			} else {
+				engineComposer = cantus -> {
+					// Jobs run side by side, so each one stays on its worker.
+					GeneticAlgorithm algorithm = new GeneticAlgorithm(populationSize, iterationCount, cantus,
+							Utils.Species.First, crossOverRate, mutationRate);
+					algorithm.setFitnessCache(new FitnessCache(fitnessCacheSize));
+					algorithm.setMetrics(metrics);
+					setOperators(algorithm, operatorRateControl, operatorMutationRange, operatorSelfAdaptive);
+					algorithm.addTerminationCriterion(new TargetFitness());
+					algorithm.run();
+					return algorithm.getBestChromosome();
+				};
+			}
+			composeBatch(batchInput, engineComposer, composer, title, renderTimeoutSeconds);
+			return;
+		}
+
+		if (sweep) {
+			sweep(cantusFirmus, seed, populationSize, iterationCount, crossOverRate, mutationRate);
+			return;
+		}
+
+		if (engine.equals("exact")) {
+			composeExactly(cantusFirmus, exactNodeLimit, composer, title);
+			return;
+		}
 
 		GeneticAlgorithm[] ga = { null, null, null };
 		ga[0] = new GeneticAlgorithm(populationSize, iterationCount, cantusFirmus, Utils.Species.First, crossOverRate,
@@ -49,35 +157,163 @@ public class App {
 				mutationRate);
 		ga[2] = new GeneticAlgorithm(populationSize, iterationCount, cantusFirmus, Utils.Species.First, crossOverRate,
 				mutationRate);
+		// All three runs score the same cantus firmus, so they share one cache.
+		FitnessCache fitnessCache = new FitnessCache(fitnessCacheSize);
+		// The islands already run side by side, so they share the cores.
+		int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / ga.length);
+		for (GeneticAlgorithm algorithm : ga) {
+			algorithm.setParallelism(parallelism);
+			algorithm.setFitnessCache(fitnessCache);
+			algorithm.setMetrics(metrics);
+			setOperators(algorithm, rateControl, mutationRange, selfAdaptive);
+			algorithm.addTerminationCriterion(new TargetFitness());
+		}
+		// Run the three algorithms side by side, passing the best chromosome
+		// of each along the ring every few generations.
+		IslandModel islands = new IslandModel(ga, migrationInterval, 1, IslandModel.Topology.Ring);
+		if (seed != null) {
+			islands.setSeed(seed);
+		}
+		if (checkpointDir != null) {
+			// Every island is checkpointed after each migration, so that a
+			// resumed run picks up between two of them.
+			new File(checkpointDir).mkdirs();
+			for (int k = 0; k < ga.length; k++) {
+				ga[k].setCheckpoint(new Checkpoint(checkpointDir + File.separator + "island" + (k + 1) + ".ckp"),
+						migrationInterval);
+			}
+			if (resume) {
+				for (int k = 0; k < ga.length; k++) {
+					if (ga[k].restore()) {
+						System.out.println("Run " + (k + 1) + " resumed at generation " + ga[k].getGenerationCount());
+					}
+				}
+			}
+		}
+		islands.run();
+		for (int k = 0; k < ga.length; k++) {
+			System.out.println("Run " + (k + 1) + ": " + ga[k].getTerminationReason());
+		}
 
 		String currentDateAndTime = Utils.getTime();
+		String resultDir = createResultDirectory(currentDateAndTime);
 
-		String baseDir = System.getProperty("user.home") + File.separator + "MusicComposer" + File.separator;
+		// Scores render in the background while the chart is drawn. Closing
+		// the renderer waits for them, also if drawing fails.
+		try (LilypondRenderer renderer = new LilypondRenderer(2, renderTimeoutSeconds, TimeUnit.SECONDS)) {
+			ga[0].createLilypondFiles(resultDir, currentDateAndTime, composer, title, renderer);
 
-		File f = new File(baseDir);
-		if (!f.exists()) f.mkdir();
+			List<List<Double>> bestFitnessOfAllPopulations = new ArrayList<>();
+			bestFitnessOfAllPopulations.add(ga[0].getBestFitnessOfEachGeneration());
+			bestFitnessOfAllPopulations.add(ga[1].getBestFitnessOfEachGeneration());
+			bestFitnessOfAllPopulations.add(ga[2].getBestFitnessOfEachGeneration());
 
-		String resultDir = baseDir + File.separator + currentDateAndTime + File.separator;
-		File resultDirHandler = new File(resultDir);
-		resultDirHandler.mkdir();
+			String chartName = "chart.png";
+			String chartPath = resultDir + chartName;
+
+			new FitnessChart().write(bestFitnessOfAllPopulations, chartPath);
+			Utils.execSystemCommand(new String[] { "xdg-open", chartName }, resultDir);
+		}
 
-		ga[0].createLilypondFiles(resultDir, currentDateAndTime, composer, title);
+	}
+
+	/**
+	 * Sets how the algorithm mutates: rateControl is null, "progress" or
+	 * "diversity", each algorithm getting its own.
+	 */
+	private static void setOperators(GeneticAlgorithm algorithm, String rateControl, int mutationRange,
+			boolean selfAdaptive) {
+		algorithm.setMutationRange(mutationRange);
+		algorithm.setSelfAdaptiveMutation(selfAdaptive);
+		if ("progress".equals(rateControl)) {
+			algorithm.setRateControl(new ProgressRateControl(1.05f, 0.02f, 1f));
+		} else if ("diversity".equals(rateControl)) {
+			algorithm.setRateControl(new DiversityRateControl(2f, 0.02f, 2f));
+		}
+	}
 
-		List<List<Double>> bestFitnessOfAllPopulations = new ArrayList<>();
-		bestFitnessOfAllPopulations.add(ga[0].getBestFitnessOfEachGeneration());
-		bestFitnessOfAllPopulations.add(ga[1].getBestFitnessOfEachGeneration());
-		bestFitnessOfAllPopulations.add(ga[2].getBestFitnessOfEachGeneration());
+	/**
+	 * Composes every cantus firmus of a file, or of standard input for "-",
+	 * on one worker per processor.
+	 */
+	private static void composeBatch(String input, Function<List<Integer>, Chromosome> engineComposer,
+			String composer, String title, int renderTimeoutSeconds) {
+		int workerCount = Runtime.getRuntime().availableProcessors();
+		BatchComposer batch = new BatchComposer(engineComposer, workerCount, workerCount * 2);
+		batch.setHeader(composer, title);
+		String resultDir = createResultDirectory(Utils.getTime());
+		try (LilypondRenderer renderer = new LilypondRenderer(workerCount, renderTimeoutSeconds, TimeUnit.SECONDS);
+				BufferedReader reader = new BufferedReader(
+						input.equals("-") ? new InputStreamReader(System.in) : new FileReader(input));
+				Writer results = new FileWriter(resultDir + "results.tsv")) {
+			batch.setRenderer(renderer);
+			batch.setMidiWriter(new MidiWriter(1));
+			int count = batch.run(reader, results, resultDir);
+			System.out.println(count + " cantus firmi read, results in " + resultDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-		String chartName = "chart.png";
-		String chartPath = resultDir + chartName;
+	/**
+	 * Races settings around the given ones against each other and writes
+	 * them ranked to sweep.tsv. Runs get up to the evaluations of five times
+	 * the given iterations at the given population size.
+	 */
+	private static void sweep(List<Integer> cantusFirmus, Long seed, int populationSize, int iterationCount,
+			float crossOverRate, float mutationRate) {
+		List<ParameterSweep.Configuration> configurations = ParameterSweep.grid(
+				new int[] { populationSize / 2, populationSize, populationSize * 2, populationSize * 4 },
+				new float[] { 0.6f, 0.8f, crossOverRate },
+				new float[] { mutationRate / 2, mutationRate, mutationRate * 2.5f, mutationRate * 5 });
+		ParameterSweep parameterSweep = new ParameterSweep(cantusFirmus, Utils.Species.First,
+				(long) populationSize * iterationCount * 5);
+		if (seed != null) {
+			parameterSweep.setSeed(seed);
+		}
+		parameterSweep.setRepeats(3);
+		List<ParameterSweep.Result> results = parameterSweep.run(configurations);
+		for (int k = 0; k < Math.min(5, results.size()); k++) {
+			System.out.println((k + 1) + ". " + results.get(k));
+		}
 
-		URL url = Utils.drawChart(bestFitnessOfAllPopulations.get(0), bestFitnessOfAllPopulations.get(1),
-				bestFitnessOfAllPopulations.get(2));
-		if (url != null) {
-			Utils.downloadAndSaveImage(url, chartPath);
+		String resultDir = createResultDirectory(Utils.getTime());
+		try (Writer table = new FileWriter(resultDir + "sweep.tsv")) {
+			ParameterSweep.writeTable(results, table);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		Utils.execSystemCommand(new String[] { "xdg-open", chartName }, resultDir);
+	}
 
+	/**
+	 * Writes the provably best contrapunctus instead of evolving one, or the
+	 * best found in nodeLimit nodes.
+	 */
+	private static void composeExactly(List<Integer> cantusFirmus, long nodeLimit, String composer, String title) {
+		ExactSolver solver = new ExactSolver(cantusFirmus);
+		solver.setNodeLimit(nodeLimit);
+		Chromosome best = solver.solve();
+		System.out.println("Best fitness: " + best.getFitness(Utils.Species.First) + " (" + solver.getNodeCount()
+				+ " nodes searched" + (solver.isProvenOptimal() ? ")" : ", not proven optimal)"));
+
+		String currentDateAndTime = Utils.getTime();
+		String resultDir = createResultDirectory(currentDateAndTime);
+		Utils.createLilypondFiles(best, "Best.ly", resultDir, currentDateAndTime, composer, title);
+	}
+
+	/**
+	 * @return Path of a new directory for the results of this run.
+	 */
+	private static String createResultDirectory(String currentDateAndTime) {
+		String baseDir = System.getProperty("user.home") + File.separator + "MusicComposer" + File.separator;
+
+		File f = new File(baseDir);
+		if (!f.exists()) f.mkdir();
+
+		String resultDir = baseDir + File.separator + currentDateAndTime + File.separator;
+		File resultDirHandler = new File(resultDir);
+		resultDirHandler.mkdir();
+		return resultDir;
 	}
 
 }
@@ -0,0 +1,254 @@
+package net.milgar.joox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Composes a contrapunctus for every cantus firmus of a catalogue, one per
+ * line, on a pool of workers. Lines are read only as fast as the workers
+ * take them, so the catalogue is never held in memory, and each result is
+ * written as soon as it is ready. Workers do not wait for scores to render;
+ * they go on with the next line.
+ * 
+ * For every line the results file gets the line number, the fitness and the
+ * notes of the contrapunctus, separated by tabs, and the output directory
+ * gets a LilyPond file named after the line number, and a MIDI file when a
+ * MidiWriter is set. When a score fails to render or a MIDI file to be
+ * written, a last column says so; the line is written once the score has
+ * rendered.
+ */
+public class BatchComposer {
+	private Function<List<Integer>, Chromosome> composer;
+	private int workerCount;
+	private int queueCapacity;
+	private String composerName = "joox";
+	private String title = "SimpleAlgo";
+	private LilypondRenderer renderer;
+	private MidiWriter midiWriter;
+
+	/**
+	 * @param composer
+	 *            Composes the contrapunctus of a cantus firmus. Called from
+	 *            several workers at once.
+	 * @param queueCapacity
+	 *            Number of read lines that may wait for a worker.
+	 */
+	public BatchComposer(Function<List<Integer>, Chromosome> composer, int workerCount, int queueCapacity) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Worker count must be at least 1: " + workerCount);
+		}
+		this.composer = composer;
+		this.workerCount = workerCount;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets the composer and title written into the LilyPond files.
+	 */
+	public void setHeader(String composerName, String title) {
+		this.composerName = composerName;
+		this.title = title;
+	}
+
+	/**
+	 * Sets the renderer the LilyPond files are queued on as they are
+	 * written. Without one they are only written.
+	 */
+	public void setRenderer(LilypondRenderer renderer) {
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Sets the writer of a MIDI file for every result. Without one no MIDI
+	 * files are written.
+	 */
+	public void setMidiWriter(MidiWriter midiWriter) {
+		this.midiWriter = midiWriter;
+	}
+
+	/**
+	 * Composes every cantus firmus read from input. Blank lines and lines
+	 * starting with '#' are skipped; notes are separated by spaces or commas.
+	 * 
+	 * @return Number of cantus firmi read.
+	 */
+	public int run(BufferedReader input, Writer results, String outputDirectory) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(this.workerCount);
+		// A permit per line that is read and not yet written, whether it waits
+		// for a worker, is composed or renders. Reading blocks while none is
+		// left.
+		Semaphore slots = new Semaphore(this.workerCount + this.queueCapacity);
+		// Lines that are written once their score has rendered.
+		Set<CompletableFuture<Void>> rendering = ConcurrentHashMap.newKeySet();
+		int lineNumber = 0;
+		int submitted = 0;
+		boolean isRead = false;
+		try {
+			String line;
+			while ((line = input.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				slots.acquire();
+				String cantus = line;
+				int number = lineNumber;
+				workers.execute(() -> {
+					CompletableFuture<Void> written = null;
+					try {
+						written = this.compose(number, cantus, results, outputDirectory);
+					} finally {
+						if (written == null) {
+							slots.release();
+						} else {
+							CompletableFuture<Void> pending = written;
+							rendering.add(pending);
+							pending.whenComplete((nothing, e) -> {
+								rendering.remove(pending);
+								slots.release();
+							});
+						}
+					}
+				});
+				submitted++;
+			}
+			isRead = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading cantus firmi", e);
+		} finally {
+			// Jobs write to results, which the caller may close as soon as
+			// this returns or throws, so every job must be over by then. If
+			// reading failed, the jobs still waiting are dropped.
+			if (isRead) {
+				workers.shutdown();
+			} else {
+				workers.shutdownNow();
+			}
+			boolean isInterrupted = awaitTermination(workers);
+			// No job is left to add to them.
+			for (CompletableFuture<Void> written : new ArrayList<>(rendering)) {
+				written.join();
+			}
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (isInterrupted && isRead) {
+				throw new IOException("Interrupted while composing");
+			}
+		}
+		results.flush();
+		return submitted;
+	}
+
+	/**
+	 * Waits for every worker to finish, also when interrupted.
+	 * 
+	 * @return True if the thread was interrupted.
+	 */
+	private static boolean awaitTermination(ExecutorService workers) {
+		boolean isInterrupted = false;
+		while (true) {
+			try {
+				if (workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+					return isInterrupted;
+				}
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+	}
+
+	/**
+	 * @return Completes once the line is written, or null if it is written
+	 *         already.
+	 */
+	private CompletableFuture<Void> compose(int lineNumber, String line, Writer results, String outputDirectory) {
+		String result;
+		List<String> failures = new ArrayList<>();
+		CompletableFuture<Boolean> score = null;
+		try {
+			List<Integer> cantusFirmus = parse(line);
+			Chromosome best = this.composer.apply(cantusFirmus);
+			StringBuilder notes = new StringBuilder();
+			for (int i = 0; i < best.size(); i++) {
+				if (i > 0) notes.append(' ');
+				notes.append(best.getGene(i));
+			}
+			result = lineNumber + "\t" + best.getFitness(Utils.Species.First) + "\t" + notes;
+			if (this.renderer == null) {
+				String lilyFile = Utils.render(1, best, Utils.getTime(), this.composerName, this.title);
+				Utils.saveStringAsFile(lilyFile, outputDirectory + lineNumber + ".ly");
+			} else {
+				score = Utils.createLilypondFiles(best, lineNumber + ".ly", outputDirectory, Utils.getTime(),
+						this.composerName, this.title, this.renderer);
+			}
+			// The MIDI file is written while the score renders.
+			if (this.midiWriter != null && !this.midiWriter.write(best, outputDirectory + lineNumber + ".mid")) {
+				failures.add("MIDI file not written");
+			}
+		} catch (RuntimeException e) {
+			result = lineNumber + "\terror: " + e.getMessage();
+			failures.clear();
+			score = null;
+		}
+		if (score == null) {
+			write(results, result, failures);
+			return null;
+		}
+		String composed = result;
+		return score.handle((isRendered, e) -> {
+			if (e != null) {
+				e.printStackTrace();
+			}
+			if (!Boolean.TRUE.equals(isRendered)) {
+				failures.add("render failed, see " + lineNumber + ".ly.log");
+			}
+			write(results, composed, failures);
+			return null;
+		});
+	}
+
+	/**
+	 * Writes a line of results, with a last column for the failures if
+	 * there are any.
+	 */
+	private static void write(Writer results, String result, List<String> failures) {
+		if (!failures.isEmpty()) {
+			result += "\t" + String.join(", ", failures);
+		}
+		try {
+			synchronized (results) {
+				results.write(result + "\n");
+				results.flush();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static List<Integer> parse(String line) {
+		List<Integer> cantusFirmus = new ArrayList<>();
+		for (String note : line.split("[\\s,]+")) {
+			try {
+				cantusFirmus.add(Integer.parseInt(note));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number: " + note, e);
+			}
+		}
+		return cantusFirmus;
+	}
+
+}
@@ -0,0 +1,244 @@
+package net.milgar.joox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots of a genetic algorithm's run in a file, to resume it after the
+ * process is gone.
+ *
+ * The file is a header naming the cantus firmus and species, followed by a
+ * snapshot, each a record protected by a CRC. Every checkpoint writes a new
+ * file next to the old one, forces it to disk and renames it over the old
+ * one, so the file holds one snapshot whatever the length of the run, and a
+ * crash while writing leaves the snapshot before. The snapshot holds the
+ * members and their fitness, a seed for the random generator from there on,
+ * and the fitness history.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x4a4f4f58;
+	private static final byte VERSION = 2;
+	private static final byte HEADER = 0;
+	private static final byte SNAPSHOT = 1;
+	// Length and CRC of a record's payload.
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * A run at the end of a generation.
+	 */
+	static class State {
+		int generationCount;
+		long seed;
+		long evaluationCount;
+		List<Double> bestFitnessOfEachGeneration;
+		byte[] bestOfFirstGeneration;
+		byte[][] members;
+		float[] fitness;
+		// Null while the run is going on.
+		String terminationReason;
+	}
+
+	private String path;
+
+	public Checkpoint(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return The snapshot in the file, or null if there is none.
+	 * @throws IOException
+	 *             If the file is not a checkpoint or a record is malformed.
+	 * @throws IllegalArgumentException
+	 *             If the file is for another cantus firmus or species.
+	 */
+	State read(List<Integer> cantusFirmus, Utils.Species species) throws IOException {
+		if (!new File(this.path).exists()) {
+			return null;
+		}
+		try (FileChannel in = FileChannel.open(Paths.get(this.path), StandardOpenOption.READ)) {
+			ByteBuffer header = this.readRecord(in, 0);
+			try {
+				if (header.get() != HEADER) {
+					throw new IOException("Not a checkpoint: " + this.path);
+				}
+				readHeader(header, cantusFirmus, species);
+				ByteBuffer snapshot = this.readRecord(in, RECORD_HEADER_SIZE + header.limit());
+				if (snapshot.get() != SNAPSHOT) {
+					throw new IOException("Checkpoint holds no snapshot: " + this.path);
+				}
+				return readSnapshot(snapshot, cantusFirmus.size());
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Malformed checkpoint: " + this.path, e);
+			}
+		}
+	}
+
+	/**
+	 * @return Payload of the record at position, checked against its CRC.
+	 */
+	private ByteBuffer readRecord(FileChannel in, long position) throws IOException {
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		readFully(in, recordHeader, position);
+		int length = recordHeader.getInt();
+		int checksum = recordHeader.getInt();
+		if (length <= 0 || length > in.size() - position - RECORD_HEADER_SIZE) {
+			throw new IOException("Truncated checkpoint record at " + position + ": " + this.path);
+		}
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		readFully(in, payload, position + RECORD_HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Corrupt checkpoint record at " + position + ": " + this.path);
+		}
+		return payload;
+	}
+
+	/**
+	 * Fills buffer from the channel at position, then flips it.
+	 */
+	private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = in.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Checkpoint ended early at " + position);
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	private void readHeader(ByteBuffer payload, List<Integer> cantusFirmus, Utils.Species species)
+			throws IOException {
+		if (payload.getInt() != MAGIC || payload.get() != VERSION) {
+			throw new IOException("Unknown checkpoint format: " + this.path);
+		}
+		int speciesOrdinal = payload.get();
+		int length = payload.getShort();
+		boolean matches = speciesOrdinal == species.ordinal() && length == cantusFirmus.size();
+		for (int i = 0; matches && i < length; i++) {
+			matches = payload.get() == cantusFirmus.get(i);
+		}
+		if (!matches) {
+			throw new IllegalArgumentException("Checkpoint " + this.path + " is of another cantus firmus or species");
+		}
+	}
+
+	private static State readSnapshot(ByteBuffer payload, int length) {
+		State state = new State();
+		state.generationCount = payload.getInt();
+		state.seed = payload.getLong();
+		state.evaluationCount = payload.getLong();
+		int historyCount = payload.getInt();
+		state.bestFitnessOfEachGeneration = new ArrayList<>(historyCount);
+		for (int i = 0; i < historyCount; i++) {
+			state.bestFitnessOfEachGeneration.add((double) payload.getFloat());
+		}
+		state.bestOfFirstGeneration = new byte[length];
+		payload.get(state.bestOfFirstGeneration);
+		int memberCount = payload.getInt();
+		state.members = new byte[memberCount][length];
+		state.fitness = new float[memberCount];
+		for (int i = 0; i < memberCount; i++) {
+			payload.get(state.members[i]);
+			state.fitness[i] = payload.getFloat();
+		}
+		int reasonLength = payload.getShort();
+		if (reasonLength >= 0) {
+			byte[] reason = new byte[reasonLength];
+			payload.get(reason);
+			state.terminationReason = new String(reason, StandardCharsets.UTF_8);
+		}
+		return state;
+	}
+
+	/**
+	 * Replaces the file with one holding only this snapshot, forced to disk
+	 * before it takes the place of the old file. The directory is forced
+	 * after the rename, so that the new file survives a crash too.
+	 */
+	void write(State state, List<Integer> cantusFirmus, Utils.Species species) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(9 + cantusFirmus.size());
+		header.put(HEADER).putInt(MAGIC).put(VERSION).put((byte) species.ordinal());
+		header.putShort((short) cantusFirmus.size());
+		for (int note : cantusFirmus) {
+			header.put((byte) note);
+		}
+
+		int length = state.bestOfFirstGeneration.length;
+		List<Double> history = state.bestFitnessOfEachGeneration;
+		byte[] reason = state.terminationReason == null ? null
+				: state.terminationReason.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 8 + 8 + 4 + 4 * history.size() + length + 4
+				+ state.members.length * (length + 4) + 2 + (reason == null ? 0 : reason.length));
+		payload.put(SNAPSHOT).putInt(state.generationCount).putLong(state.seed).putLong(state.evaluationCount);
+		payload.putInt(history.size());
+		for (double fitness : history) {
+			payload.putFloat((float) fitness);
+		}
+		payload.put(state.bestOfFirstGeneration);
+		payload.putInt(state.members.length);
+		for (int i = 0; i < state.members.length; i++) {
+			payload.put(state.members[i]).putFloat(state.fitness[i]);
+		}
+		if (reason == null) {
+			payload.putShort((short) -1);
+		} else {
+			payload.putShort((short) reason.length).put(reason);
+		}
+
+		Path target = Paths.get(this.path);
+		Path temporary = Paths.get(this.path + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			append(out, header);
+			append(out, payload);
+			out.force(false);
+		}
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Path directory = target.toAbsolutePath().getParent();
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Some platforms, Windows among them, cannot open a directory;
+			// the rename is as durable as they make it.
+		}
+	}
+
+	private static void append(FileChannel out, ByteBuffer payload) throws IOException {
+		payload.flip();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		record.putInt(payload.remaining()).putInt((int) crc.getValue()).flip();
+		while (record.hasRemaining() || payload.hasRemaining()) {
+			out.write(new ByteBuffer[] { record, payload });
+		}
+	}
+
+	/**
+	 * Deletes the file, for a run started from scratch, so that it cannot be
+	 * resumed from the snapshot of an earlier run.
+	 */
+	void reset() throws IOException {
+		Files.deleteIfExists(Paths.get(this.path));
+	}
+
+}
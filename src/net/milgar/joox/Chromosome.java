@@ -6,60 +6,164 @@
 package net.milgar.joox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import net.milgar.joox.Utils.Species;
 
 public class Chromosome {
-	private List<Integer> genes;
+	private static final int SPECIES_COUNT = Species.values().length;
+
+	// Notes are always in 1..17, so a byte per gene is enough. Null in views
+	// that keep their genes elsewhere.
+	private byte[] genes;
 	private List<Integer> cantusFirmus;
 	private boolean isDirty;
-	private HashMap<Utils.Species, Float> fitness;
+	// Fitness per species, indexed by ordinal. A species' bit in evaluated
+	// is set once its slot holds the score of the current genes.
+	private float[] fitness;
+	private int evaluated;
+	// Body rule results of the last evaluation, and the positions changed
+	// since then. A null tally means the next evaluation scans every note.
+	private FirstSpecies.Tally tally;
+	private int[] touched;
+	private int touchedCount;
+	// Chance of each gene to mutate when mutation rates are self-adaptive,
+	// inherited with the genes. 0 until it is first adapted.
+	private float mutationRate;
 
-	public Chromosome(List<Integer> cantusFirmus) {
-		this.cantusFirmus = new ArrayList<>(cantusFirmus);
-		this.genes = new ArrayList<>();
-		Random rnd = new Random();
-		for (int i = 0; i < cantusFirmus.size(); i++) {
-			this.genes.add(rnd.nextInt(17) + 1);
+	public Chromosome(List<Integer> cantusFirmus, SplittableRandom rnd) {
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
+		this.genes = new byte[cantusFirmus.size()];
+		for (int i = 0; i < this.genes.length; i++) {
+			this.genes[i] = (byte) (rnd.nextInt(17) + 1);
 		}
 		init();
 	}
 
 	public Chromosome(List<Integer> genes, List<Integer> cantusFirmus) {
-		this.genes = new ArrayList<>(genes);
-		this.cantusFirmus = new ArrayList<>(cantusFirmus);
+		this.genes = new byte[genes.size()];
+		for (int i = 0; i < this.genes.length; i++) {
+			this.genes[i] = (byte) (int) genes.get(i);
+		}
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
+		init();
+	}
+
+	Chromosome(byte[] genes, List<Integer> cantusFirmus) {
+		this.genes = genes.clone();
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
 		init();
 	}
 
+	/**
+	 * For views that keep their genes elsewhere. They override getGene,
+	 * setGene and size, setDirty and everything that reads or writes the
+	 * fitness, so nothing is allocated or called here.
+	 */
+	Chromosome(List<Integer> cantusFirmus) {
+		this.cantusFirmus = cantusFirmus;
+	}
+
 	public Chromosome(Chromosome that) {
-		this(that.genes, that.cantusFirmus);
+		this.genes = new byte[that.size()];
+		for (int i = 0; i < this.genes.length; i++) {
+			this.genes[i] = (byte) that.getGene(i);
+		}
+		// The cantus firmus is read-only, so copies can share it.
+		this.cantusFirmus = that.cantusFirmus;
+		this.mutationRate = that.getMutationRate();
+		if (that.tally != null) {
+			this.tally = new FirstSpecies.Tally(that.tally);
+			this.touched = that.touched.clone();
+			this.touchedCount = that.touchedCount;
+		}
+		init();
+	}
+
+	/**
+	 * Overwrites this chromosome with the genes, cached fitness and tally of
+	 * that one, which must be of the same length. Nothing is allocated once
+	 * this chromosome has been evaluated.
+	 */
+	public void copyFrom(Chromosome that) {
+		if (that == this) {
+			return;
+		}
+		if (that.genes == null) {
+			this.copyFromView(that);
+			return;
+		}
+		System.arraycopy(that.genes, 0, this.genes, 0, this.genes.length);
+		this.cantusFirmus = that.cantusFirmus;
+		if (that.tally == null) {
+			this.tally = null;
+		} else {
+			if (this.tally == null) {
+				this.tally = new FirstSpecies.Tally(that.tally);
+			} else {
+				this.tally.copyFrom(that.tally);
+			}
+			if (this.touched == null) {
+				this.touched = new int[that.touched.length];
+			}
+			System.arraycopy(that.touched, 0, this.touched, 0, that.touchedCount);
+			this.touchedCount = that.touchedCount;
+		}
+		System.arraycopy(that.fitness, 0, this.fitness, 0, SPECIES_COUNT);
+		this.evaluated = that.evaluated;
+		this.isDirty = that.isDirty;
+		this.mutationRate = that.mutationRate;
+	}
+
+	private void copyFromView(Chromosome that) {
+		for (int i = 0; i < this.genes.length; i++) {
+			this.genes[i] = (byte) that.getGene(i);
+		}
+		this.cantusFirmus = that.cantusFirmus;
+		this.mutationRate = that.getMutationRate();
+		this.tally = null;
+		this.setDirty(true);
+		for (Species species : Species.values()) {
+			if (that.isEvaluated(species)) {
+				this.setFitness(species, that.getFitness(species));
+			}
+		}
 	}
 
 	private void init() {
-		fitness = new HashMap<>();
+		fitness = new float[SPECIES_COUNT];
 		this.setDirty(true);
 	}
 
 	public int getGene(int index) {
-		return this.genes.get(index);
+		return this.genes[index];
+	}
+
+	void setGene(int index, int gene) {
+		this.genes[index] = (byte) gene;
+		this.touch(index);
+		this.setDirty(true);
 	}
 
-	public List<Integer> getGenes() {
-		return new ArrayList<Integer>(this.genes);
+	/**
+	 * @return Number of notes in the contrapunctus.
+	 */
+	public int size() {
+		return this.genes.length;
 	}
 
 	/**
-	 * @return Copy of chromosome's cantus firmus.
+	 * @return Read-only view of chromosome's cantus firmus.
 	 */
 	public List<Integer> getCantusFirmus() {
-		return new ArrayList<>(this.cantusFirmus);
+		return this.cantusFirmus;
 	}
 
 	public void setCantusFirmus(List<Integer> cantusFirmus) {
-		this.cantusFirmus = new ArrayList<>(cantusFirmus);
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
+		this.tally = null;
 		this.setDirty(true);
 	}
 
@@ -71,44 +175,189 @@ public class Chromosome {
 		return this.isDirty;
 	}
 
+	/**
+	 * @return True if the fitness for species is cached and up to date.
+	 */
+	public boolean isEvaluated(Utils.Species species) {
+		return !this.isDirty && (this.evaluated & (1 << species.ordinal())) != 0;
+	}
+
 	public float getFitness(Utils.Species species) {
 		if (this.isDirty) {
-			this.fitness.clear();
-			this.fitness.put(Species.First, FirstSpecies.calculateFitness(this, this.cantusFirmus));
-			this.fitness.put(Species.Second, FirstSpecies.calculateFitness(this, this.cantusFirmus));
+			this.evaluated = 0;
+			this.setDirty(false);
+		}
+		int slot = species.ordinal();
+		if ((this.evaluated & (1 << slot)) == 0) {
+			this.fitness[slot] = calculateFitness(species);
+			this.evaluated |= 1 << slot;
+		}
+		return this.fitness[slot];
+	}
+
+	/**
+	 * Sets the fitness for species to a known score of the current genes,
+	 * such as one from a FitnessCache.
+	 */
+	void setFitness(Utils.Species species, float fitness) {
+		if (this.isDirty) {
+			this.evaluated = 0;
 			this.setDirty(false);
 		}
-		return this.fitness.get(species);
+		int slot = species.ordinal();
+		this.fitness[slot] = fitness;
+		this.evaluated |= 1 << slot;
 	}
 
-	public static void crossOver(Chromosome c1, Chromosome c2) {
-		Random rnd = new Random();
-		int crossOverPointFirst = rnd.nextInt(c1.genes.size());
-		int crossOverPointSecond = rnd.nextInt(c1.genes.size() - crossOverPointFirst) + crossOverPointFirst;
+	private float calculateFitness(Utils.Species species) {
+		switch (species) {
+		case First:
+		default:
+			// Only the first species rules exist so far.
+			return evaluate();
+		}
+	}
+
+	/**
+	 * Scores the contrapunctus, re-checking only the notes changed since the
+	 * last evaluation when possible.
+	 */
+	private float evaluate() {
+		if (this.tally == null) {
+			this.tally = FirstSpecies.tally(this, this.cantusFirmus);
+			// Past a quarter of the notes a full scan is about as cheap.
+			this.touched = new int[Math.max(2, this.size() / 4)];
+		} else {
+			for (int k = 0; k < this.touchedCount; k++) {
+				FirstSpecies.retally(this.tally, this, this.cantusFirmus, this.touched[k]);
+			}
+		}
+		this.touchedCount = 0;
+		return FirstSpecies.score(this.tally, this, this.cantusFirmus);
+	}
+
+	private void touch(int index) {
+		if (this.tally == null) {
+			return;
+		}
+		if (this.touchedCount == this.touched.length) {
+			this.tally = null;
+		} else {
+			this.touched[this.touchedCount++] = index;
+		}
+	}
+
+	public static void crossOver(Chromosome c1, Chromosome c2, SplittableRandom rnd) {
+		int crossOverPointFirst = rnd.nextInt(c1.size());
+		int crossOverPointSecond = rnd.nextInt(c1.size() - crossOverPointFirst) + crossOverPointFirst;
 		for (int i = crossOverPointFirst; i < crossOverPointSecond; i++) {
-			int tmpGene = c1.genes.get(i);
-			c1.genes.set(i, c2.genes.get(i));
-			c2.genes.set(i, tmpGene);
+			int tmpGene = c1.getGene(i);
+			c1.setGene(i, c2.getGene(i));
+			c2.setGene(i, tmpGene);
 		}
 		c1.setDirty(true);
 		c2.setDirty(true);
 	}
 
-	public void mutate() {
+	public void mutate(SplittableRandom rnd) {
+		this.mutate(rnd, 0);
+	}
+
+	/**
+	 * Changes two different notes.
+	 * 
+	 * @param range
+	 *            Largest step a note is moved by, up or down; 0 to draw the
+	 *            new notes from the whole range instead.
+	 */
+	public void mutate(SplittableRandom rnd, int range) {
+		if (range > 0) {
+			int indexFirst, indexSecond;
+			do {
+				indexFirst = rnd.nextInt(this.size());
+				indexSecond = rnd.nextInt(this.size());
+			} while (indexFirst == indexSecond);
+			this.setGene(indexFirst, step(this.getGene(indexFirst), rnd, range));
+			this.setGene(indexSecond, step(this.getGene(indexSecond), rnd, range));
+			return;
+		}
 		int indexFirst, indexSecond;
 		int newGeneFirst, newGeneSecond;
-		Random rnd = new Random();
 		do {
-			indexFirst = rnd.nextInt(this.genes.size());
-			indexSecond = rnd.nextInt(this.genes.size());
+			indexFirst = rnd.nextInt(this.size());
+			indexSecond = rnd.nextInt(this.size());
 		} while (indexFirst == indexSecond);
 		do {
 			newGeneFirst = rnd.nextInt(17) + 1;
 			newGeneSecond = rnd.nextInt(17) + 1;
 		} while (newGeneFirst == newGeneSecond);
-		this.genes.set(indexFirst, newGeneFirst);
-		this.genes.set(indexSecond, newGeneSecond);
-		this.setDirty(true);
+		this.setGene(indexFirst, newGeneFirst);
+		this.setGene(indexSecond, newGeneSecond);
+	}
+
+	/**
+	 * @return A note 1 to range steps away from note, within 1..17.
+	 */
+	private static int step(int note, SplittableRandom rnd, int range) {
+		int offset = rnd.nextInt(range) + 1;
+		if (rnd.nextBoolean()) {
+			offset = -offset;
+		}
+		// Steps that leave the range are taken the other way.
+		if (note + offset < 1 || note + offset > 17) {
+			offset = -offset;
+		}
+		return Math.min(17, Math.max(1, note + offset));
+	}
+
+	/**
+	 * @return Chance of each gene to mutate, 0 if it has not been adapted.
+	 */
+	public float getMutationRate() {
+		return this.mutationRate;
+	}
+
+	void setMutationRate(float mutationRate) {
+		this.mutationRate = mutationRate;
+	}
+
+	/**
+	 * Multiplies the mutation rate of this chromosome by a log-normal factor,
+	 * starting from one gene per mutation, and keeps it between half a gene
+	 * and half of the genes.
+	 * 
+	 * @param learningRate
+	 *            Standard deviation of the logarithm of the factor.
+	 */
+	void adaptMutationRate(SplittableRandom rnd, double learningRate) {
+		float rate = this.getMutationRate() > 0 ? this.getMutationRate() : 1f / this.size();
+		rate *= (float) Math.exp(learningRate * gaussian(rnd));
+		this.setMutationRate(Math.min(0.5f, Math.max(0.5f / this.size(), rate)));
+	}
+
+	/**
+	 * Changes every note with the mutation rate of this chromosome as its
+	 * chance, to a step of up to range away, or any other note for range 0.
+	 */
+	void mutateGenes(SplittableRandom rnd, int range) {
+		float mutationRate = this.getMutationRate();
+		for (int i = 0; i < this.size(); i++) {
+			if (rnd.nextDouble() >= mutationRate) {
+				continue;
+			}
+			int note = this.getGene(i);
+			if (range > 0) {
+				this.setGene(i, step(note, rnd, range));
+			} else {
+				int other = rnd.nextInt(16) + 1;
+				this.setGene(i, other >= note ? other + 1 : other);
+			}
+		}
+	}
+
+	private static double gaussian(SplittableRandom rnd) {
+		// Box-Muller; 1 - nextDouble() keeps the logarithm finite.
+		return Math.sqrt(-2 * Math.log(1 - rnd.nextDouble())) * Math.cos(2 * Math.PI * rnd.nextDouble());
 	}
 
 	public int compareTo(Chromosome that, Utils.Species species) {
@@ -0,0 +1,36 @@
+package net.milgar.joox;
+
+/**
+ * Stops when the population has become too uniform for crossover to find
+ * anything new.
+ */
+public class DiversityFloor implements TerminationCriterion {
+	private float minDiversity;
+
+	/**
+	 * @param minDiversity
+	 *            Lowest diversity, as given by Population.getDiversity(), at
+	 *            which the run goes on.
+	 */
+	public DiversityFloor(float minDiversity) {
+		this.minDiversity = minDiversity;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public String check(GenerationSummary summary) {
+		if (summary.getDiversity() < this.minDiversity) {
+			return "Diversity fell below " + this.minDiversity;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean needsDiversity() {
+		return true;
+	}
+
+}
@@ -0,0 +1,86 @@
+package net.milgar.joox;
+
+/**
+ * Mutates more as the population becomes uniform and less while it is
+ * diverse: the mutation rate is the initial one scaled by the target
+ * diversity over the diversity of the last generation. Crossover is left at
+ * its initial rate unless a range is set for it.
+ */
+public class DiversityRateControl implements RateControl {
+	private float targetDiversity;
+	private float minMutationRate;
+	private float maxMutationRate;
+	private float crossOverRate;
+	private float baseMutationRate;
+	private float mutationRate;
+	private boolean isCrossOverAdapted;
+	private float minCrossOverRate;
+	private float maxCrossOverRate;
+	private float baseCrossOverRate;
+
+	/**
+	 * @param targetDiversity
+	 *            Diversity, as given by Population.getDiversity(), at which
+	 *            the initial mutation rate is kept.
+	 */
+	public DiversityRateControl(float targetDiversity, float minMutationRate, float maxMutationRate) {
+		if (targetDiversity <= 0 || minMutationRate > maxMutationRate) {
+			throw new IllegalArgumentException("Needs a positive target diversity and min <= max: "
+					+ targetDiversity + ", " + minMutationRate + ", " + maxMutationRate);
+		}
+		this.targetDiversity = targetDiversity;
+		this.minMutationRate = minMutationRate;
+		this.maxMutationRate = maxMutationRate;
+	}
+
+	/**
+	 * Adapts the crossover rate too: it is the initial one scaled by the
+	 * diversity of the last generation over the target, as recombining
+	 * members only finds something new while they differ.
+	 */
+	public void setCrossOverRange(float minCrossOverRate, float maxCrossOverRate) {
+		if (minCrossOverRate < 0 || minCrossOverRate > maxCrossOverRate || maxCrossOverRate > 1) {
+			throw new IllegalArgumentException("Needs 0 <= min <= max <= 1: " + minCrossOverRate + ", "
+					+ maxCrossOverRate);
+		}
+		this.isCrossOverAdapted = true;
+		this.minCrossOverRate = minCrossOverRate;
+		this.maxCrossOverRate = maxCrossOverRate;
+	}
+
+	@Override
+	public void reset(float crossOverRate, float mutationRate) {
+		this.crossOverRate = crossOverRate;
+		this.baseCrossOverRate = crossOverRate;
+		this.baseMutationRate = mutationRate;
+		this.mutationRate = mutationRate;
+	}
+
+	@Override
+	public void update(GenerationSummary summary) {
+		// A population of equal members would otherwise divide by zero.
+		float diversity = Math.max(summary.getDiversity(), 1e-3f);
+		float rate = this.baseMutationRate * this.targetDiversity / diversity;
+		this.mutationRate = Math.min(this.maxMutationRate, Math.max(this.minMutationRate, rate));
+		if (this.isCrossOverAdapted) {
+			float crossOverRate = this.baseCrossOverRate * diversity / this.targetDiversity;
+			this.crossOverRate = Math.min(this.maxCrossOverRate, Math.max(this.minCrossOverRate, crossOverRate));
+		}
+	}
+
+	@Override
+	public float getCrossOverRate() {
+		return this.crossOverRate;
+	}
+
+	@Override
+	public float getMutationRate() {
+		return this.mutationRate;
+	}
+
+	@Override
+	public boolean needsDiversity() {
+		return true;
+	}
+
+}
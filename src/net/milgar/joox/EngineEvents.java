@@ -0,0 +1,69 @@
+package net.milgar.joox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder events of the engine. They cost next to nothing until a
+ * recording enables them, e.g. with -XX:StartFlightRecording.
+ */
+final class EngineEvents {
+
+	private EngineEvents() {
+	}
+
+	@Name("net.milgar.joox.Generation")
+	@Label("Generation")
+	@Category({ "Joox", "Genetic Algorithm" })
+	@Description("Creation and summary of one generation")
+	static final class GenerationEvent extends Event {
+		@Label("Generation")
+		int generation;
+		@Label("Best Fitness")
+		float bestFitness;
+		@Label("Mean Fitness")
+		float meanFitness;
+		@Label("Evaluations")
+		@Description("Fitness evaluations of the run so far")
+		long evaluationCount;
+	}
+
+	@Name("net.milgar.joox.Breeding")
+	@Label("Breeding")
+	@Category({ "Joox", "Genetic Algorithm" })
+	@Description("Selection, crossover and mutation of a next generation")
+	static final class BreedingEvent extends Event {
+		@Label("Population Size")
+		int populationSize;
+		@Label("Crossovers")
+		int crossOverCount;
+	}
+
+	@Name("net.milgar.joox.Selection")
+	@Label("Selection")
+	@Category({ "Joox", "Genetic Algorithm" })
+	@Description("Picking the parents of a next generation")
+	static final class SelectionEvent extends Event {
+		@Label("Selection")
+		String selection;
+		@Label("Parents")
+		int parentCount;
+	}
+
+	@Name("net.milgar.joox.Evaluation")
+	@Label("Evaluation")
+	@Category({ "Joox", "Genetic Algorithm" })
+	@Description("Scoring a chunk of a population")
+	static final class EvaluationEvent extends Event {
+		@Label("Members")
+		int memberCount;
+		@Label("Evaluations")
+		int evaluationCount;
+		@Label("Cache Hits")
+		int cacheHitCount;
+	}
+
+}
@@ -0,0 +1,236 @@
+package net.milgar.joox;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters, rates, latency histograms and fitness gauges of the algorithms it
+ * is set on. Several algorithms, also running at the same time, may share
+ * one. Register it to read it over JMX.
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+
+	public enum Phase {
+		Generation, Breeding, Selection, Evaluation
+	};
+
+	// Latencies up to 2^32 microseconds, about an hour, are told apart.
+	private static final int BUCKET_COUNT = 32;
+	private static final long SAMPLE_INTERVAL_NANOS = 1000000000L;
+
+	private LongAdder evaluations = new LongAdder();
+	private LongAdder generations = new LongAdder();
+	private LongAdder cacheHits = new LongAdder();
+	private LongAdder cacheLookUps = new LongAdder();
+	private LongAdder[][] latencies = new LongAdder[Phase.values().length][BUCKET_COUNT];
+	// Float bits, NaN until a generation is recorded.
+	private AtomicInteger bestFitness = new AtomicInteger(Float.floatToIntBits(Float.NaN));
+	private volatile float lastBestFitness = Float.NaN;
+
+	// Counts at the last sample, from which the rates are taken.
+	private long sampleNanos = System.nanoTime();
+	private long sampleEvaluations;
+	private long sampleGenerations;
+	private double evaluationsPerSecond;
+	private double generationsPerSecond;
+
+	public EngineMetrics() {
+		for (LongAdder[] buckets : this.latencies) {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * net.milgar.joox:type=EngineMetrics,name=name.
+	 *
+	 * @return False if they could not be registered.
+	 */
+	public boolean register(String name) {
+		try {
+			ObjectName objectName = new ObjectName("net.milgar.joox:type=EngineMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	void recordLatency(Phase phase, long nanos) {
+		long micros = nanos / 1000;
+		int bucket = micros < 2 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+		this.latencies[phase.ordinal()][Math.min(bucket, BUCKET_COUNT - 1)].increment();
+	}
+
+	void recordEvaluation(int evaluationCount, int cacheHitCount, boolean cached, long nanos) {
+		this.evaluations.add(evaluationCount);
+		if (cached) {
+			this.cacheLookUps.add(evaluationCount + cacheHitCount);
+			this.cacheHits.add(cacheHitCount);
+		}
+		this.recordLatency(Phase.Evaluation, nanos);
+	}
+
+	void recordGeneration(GenerationSummary summary) {
+		this.generations.increment();
+		float fitness = summary.getBestFitness();
+		this.lastBestFitness = fitness;
+		int best;
+		do {
+			best = this.bestFitness.get();
+			// Comparisons with NaN fail, so the first generation always gets
+			// in.
+			if (fitness <= Float.intBitsToFloat(best)) {
+				return;
+			}
+		} while (!this.bestFitness.compareAndSet(best, Float.floatToIntBits(fitness)));
+	}
+
+	@Override
+	public long getEvaluationCount() {
+		return this.evaluations.sum();
+	}
+
+	@Override
+	public long getGenerationCount() {
+		return this.generations.sum();
+	}
+
+	@Override
+	public double getEvaluationsPerSecond() {
+		this.sample();
+		return this.evaluationsPerSecond;
+	}
+
+	@Override
+	public double getGenerationsPerSecond() {
+		this.sample();
+		return this.generationsPerSecond;
+	}
+
+	/**
+	 * Updates the rates when a sample interval has passed since the last
+	 * update.
+	 */
+	private synchronized void sample() {
+		long now = System.nanoTime();
+		long elapsed = now - this.sampleNanos;
+		if (elapsed < SAMPLE_INTERVAL_NANOS) {
+			return;
+		}
+		long evaluationCount = this.evaluations.sum();
+		long generationCount = this.generations.sum();
+		this.evaluationsPerSecond = (evaluationCount - this.sampleEvaluations) * 1e9 / elapsed;
+		this.generationsPerSecond = (generationCount - this.sampleGenerations) * 1e9 / elapsed;
+		this.sampleNanos = now;
+		this.sampleEvaluations = evaluationCount;
+		this.sampleGenerations = generationCount;
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		long lookUps = this.cacheLookUps.sum();
+		return lookUps == 0 ? 0 : (double) this.cacheHits.sum() / lookUps;
+	}
+
+	@Override
+	public float getBestFitness() {
+		return Float.intBitsToFloat(this.bestFitness.get());
+	}
+
+	@Override
+	public float getLastBestFitness() {
+		return this.lastBestFitness;
+	}
+
+	@Override
+	public Map<String, Double> getMedianLatencies() {
+		return this.getPercentiles(0.5);
+	}
+
+	@Override
+	public Map<String, Double> getP99Latencies() {
+		return this.getPercentiles(0.99);
+	}
+
+	@Override
+	public Map<String, long[]> getLatencyHistograms() {
+		Map<String, long[]> histograms = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			histograms.put(phase.name(), this.getHistogram(phase));
+		}
+		return histograms;
+	}
+
+	/**
+	 * @return Upper bound in microseconds of the bucket holding the given
+	 *         share of the latencies of phase, 0 if none were recorded.
+	 */
+	public double getLatencyPercentile(Phase phase, double percentile) {
+		long[] counts = this.getHistogram(phase);
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= percentile * total) {
+				return 1L << (i + 1);
+			}
+		}
+		return 1L << BUCKET_COUNT;
+	}
+
+	private Map<String, Double> getPercentiles(double percentile) {
+		Map<String, Double> percentiles = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			percentiles.put(phase.name(), this.getLatencyPercentile(phase, percentile));
+		}
+		return percentiles;
+	}
+
+	private long[] getHistogram(Phase phase) {
+		LongAdder[] buckets = this.latencies[phase.ordinal()];
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		this.evaluations.reset();
+		this.generations.reset();
+		this.cacheHits.reset();
+		this.cacheLookUps.reset();
+		for (LongAdder[] buckets : this.latencies) {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+		}
+		this.bestFitness.set(Float.floatToIntBits(Float.NaN));
+		this.lastBestFitness = Float.NaN;
+		synchronized (this) {
+			this.sampleNanos = System.nanoTime();
+			this.sampleEvaluations = 0;
+			this.sampleGenerations = 0;
+			this.evaluationsPerSecond = 0;
+			this.generationsPerSecond = 0;
+		}
+	}
+
+}
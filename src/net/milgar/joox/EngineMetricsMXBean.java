@@ -0,0 +1,52 @@
+package net.milgar.joox;
+
+import java.util.Map;
+
+/**
+ * Management interface of EngineMetrics. Latencies are in microseconds and
+ * keyed by phase: Generation, Breeding, Selection and Evaluation.
+ */
+public interface EngineMetricsMXBean {
+
+	long getEvaluationCount();
+
+	long getGenerationCount();
+
+	/**
+	 * @return Evaluations per second over the last second or more.
+	 */
+	double getEvaluationsPerSecond();
+
+	/**
+	 * @return Generations per second over the last second or more.
+	 */
+	double getGenerationsPerSecond();
+
+	/**
+	 * @return Share of members whose fitness was found in a cache.
+	 */
+	double getCacheHitRate();
+
+	/**
+	 * @return Best fitness of any generation, NaN before the first one.
+	 */
+	float getBestFitness();
+
+	/**
+	 * @return Best fitness of the latest generation, NaN before the first one.
+	 */
+	float getLastBestFitness();
+
+	Map<String, Double> getMedianLatencies();
+
+	Map<String, Double> getP99Latencies();
+
+	/**
+	 * @return Counts of latencies per phase, bucket i holding those below
+	 *         2^(i + 1) microseconds and not in an earlier bucket.
+	 */
+	Map<String, long[]> getLatencyHistograms();
+
+	void reset();
+
+}
@@ -0,0 +1,431 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best first species contrapunctus for a cantus firmus by branch and
+ * bound instead of evolving one.
+ * 
+ * Apart from the threshold punishments, every rule of
+ * FirstSpecies.calculateFitness scores a single note or two neighbouring
+ * notes. The threshold punishments depend on counters over the whole line:
+ * repeated notes, thirds, sixths, parallel motion and leaps. With the first
+ * note fixed, dynamic programming over (position, note, count) gives, for
+ * each counter, the best score the remaining notes can add including the
+ * punishment of that counter. Counters only grow, so with the punishments the
+ * other counters have already earned, each is an upper bound, and the
+ * least of them is used. Notes are assigned from first to last, trying the
+ * most promising ones first, and a branch is cut as soon as its bound cannot
+ * beat the solutions found so far.
+ * 
+ * Scores are kept in integer tenths, which all rewards and punishments are
+ * multiples of, so that the bounds are exact.
+ */
+public class ExactSolver {
+	private static final int NOTE_COUNT = 17;
+
+	private static final int REWARD_FIRST = tenths(FirstSpecies.REWARD_FIRST);
+	private static final int PUNISH_FIRST = tenths(FirstSpecies.PUNISH_FIRST);
+	private static final int REWARD_LAST = tenths(FirstSpecies.REWARD_LAST);
+	private static final int PUNISH_LAST = tenths(FirstSpecies.PUNISH_LAST);
+	private static final int REWARD_LAST_STEP = tenths(FirstSpecies.REWARD_LAST_STEP);
+	private static final int PUNISH_LAST_STEP = tenths(FirstSpecies.PUNISH_LAST_STEP);
+	private static final int REWARD_LAST_MOTION = tenths(FirstSpecies.REWARD_LAST_MOTION);
+	private static final int PUNISH_LAST_MOTION = tenths(FirstSpecies.PUNISH_LAST_MOTION);
+	private static final int PUNISH_REPEATED_PENULTIMATE = tenths(FirstSpecies.PUNISH_REPEATED_PENULTIMATE);
+	private static final int REWARD_PENULTIMATE_PREPARATION = tenths(FirstSpecies.REWARD_PENULTIMATE_PREPARATION);
+	private static final int PUNISH_PENULTIMATE_PREPARATION = tenths(FirstSpecies.PUNISH_PENULTIMATE_PREPARATION);
+	private static final int PUNISH_PARALLEL_FIFTHS_OCTAVES = tenths(FirstSpecies.PUNISH_PARALLEL_FIFTHS_OCTAVES);
+	private static final int PUNISH_REPEATS = tenths(FirstSpecies.PUNISH_REPEATS);
+	private static final int PUNISH_THIRDS = tenths(FirstSpecies.PUNISH_THIRDS);
+	private static final int PUNISH_SIXTHS = tenths(FirstSpecies.PUNISH_SIXTHS);
+	private static final int PUNISH_PARALLEL = tenths(FirstSpecies.PUNISH_PARALLEL);
+	private static final int PUNISH_LEAPS = tenths(FirstSpecies.PUNISH_LEAPS);
+
+	// Counters of the threshold punishments.
+	private static final int REPEATS = 0;
+	private static final int THIRDS = 1;
+	private static final int SIXTHS = 2;
+	private static final int PARALLEL = 3;
+	private static final int LEAPS = 4;
+	private static final int COUNTER_COUNT = 5;
+	private static final int[] PUNISHMENTS = { PUNISH_REPEATS, PUNISH_THIRDS, PUNISH_SIXTHS, PUNISH_PARALLEL,
+			PUNISH_LEAPS };
+
+	private List<Integer> cantusFirmus;
+	private int[] cantus;
+	private int length;
+	// Highest count of each counter that is not punished yet.
+	private int[] limits;
+	private long nodeLimit = Long.MAX_VALUE;
+
+	// State of the current search.
+	private int[] notes;
+	// By counter, position, note and count.
+	private int[][][][] bounds;
+	private int[][] order;
+	private int[][] childBounds;
+	private int[] counts = new int[COUNTER_COUNT];
+	private PriorityQueue<Solution> solutions;
+	private int solutionCount;
+	private long nodeCount;
+	private boolean isProvenOptimal;
+
+	public ExactSolver(List<Integer> cantusFirmus) {
+		if (cantusFirmus.size() < 3) {
+			throw new IllegalArgumentException("Cantus firmus needs at least 3 notes: " + cantusFirmus);
+		}
+		this.cantusFirmus = new ArrayList<>(cantusFirmus);
+		this.length = cantusFirmus.size();
+		this.cantus = new int[this.length];
+		for (int i = 0; i < this.length; i++) {
+			this.cantus[i] = cantusFirmus.get(i);
+		}
+		// Same thresholds as FirstSpecies.calculateFitness.
+		float repeatThreshold = (float) ((float) (this.length) * 0.5);
+		float jumpThreshold = (float) ((float) (this.length) * 0.3);
+		int repeatLimit = (int) Math.floor(repeatThreshold);
+		int jumpLimit = (int) Math.floor(jumpThreshold);
+		this.limits = new int[] { repeatLimit, repeatLimit, repeatLimit, repeatLimit, jumpLimit };
+	}
+
+	/**
+	 * Stops searching after this many nodes. The solutions found so far are
+	 * returned, but may not be optimal.
+	 */
+	public void setNodeLimit(long nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * @return The best contrapunctus.
+	 */
+	public Chromosome solve() {
+		return this.solve(1).get(0);
+	}
+
+	/**
+	 * @return The count best contrapuncti, best first. Ties are broken
+	 *         arbitrarily.
+	 */
+	public List<Chromosome> solve(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Count must be at least 1: " + count);
+		}
+		this.solutionCount = count;
+		this.solutions = new PriorityQueue<>();
+		this.notes = new int[this.length];
+		this.order = new int[this.length][NOTE_COUNT];
+		this.childBounds = new int[this.length][NOTE_COUNT + 1];
+		this.nodeCount = 0;
+		this.isProvenOptimal = true;
+
+		// Try the first notes with the best bounds first.
+		int[] firstBounds = new int[NOTE_COUNT + 1];
+		int[][][][][] firstTables = new int[NOTE_COUNT + 1][][][][];
+		Arrays.fill(this.counts, 0);
+		for (int first = 1; first <= NOTE_COUNT; first++) {
+			firstTables[first] = this.computeBounds(first);
+			this.bounds = firstTables[first];
+			firstBounds[first] = this.first(first) + this.bound(0, first);
+		}
+		int[] firstOrder = new int[NOTE_COUNT];
+		sortByBound(firstOrder, firstBounds);
+		for (int first : firstOrder) {
+			if (!this.canImprove(firstBounds[first])) {
+				break;
+			}
+			this.bounds = firstTables[first];
+			this.notes[0] = first;
+			Arrays.fill(this.counts, 0);
+			if (!this.search(0, this.first(first))) {
+				this.isProvenOptimal = false;
+				break;
+			}
+		}
+
+		List<Solution> found = new ArrayList<>(this.solutions);
+		Collections.sort(found, Collections.reverseOrder());
+		List<Chromosome> result = new ArrayList<>();
+		for (Solution solution : found) {
+			result.add(new Chromosome(solution.notes, this.cantusFirmus));
+		}
+		return result;
+	}
+
+	/**
+	 * @return False if the search was stopped by the node limit.
+	 */
+	public boolean isProvenOptimal() {
+		return this.isProvenOptimal;
+	}
+
+	/**
+	 * @return Number of nodes visited by the last search.
+	 */
+	public long getNodeCount() {
+		return this.nodeCount;
+	}
+
+	/**
+	 * Extends the notes assigned up to position by every possible next note.
+	 * 
+	 * @param score
+	 *            Score of the rules decided by the notes assigned so far,
+	 *            without the threshold punishments.
+	 * @return False if the node limit was reached.
+	 */
+	private boolean search(int position, int score) {
+		if (++this.nodeCount > this.nodeLimit) {
+			return false;
+		}
+		if (position == this.length - 1) {
+			this.offer(score + this.thresholdPunishment());
+			return true;
+		}
+		int next = position + 1;
+		int last = this.notes[position];
+		int[] childBounds = this.childBounds[next];
+		for (int note = 1; note <= NOTE_COUNT; note++) {
+			this.notes[next] = note;
+			this.count(next, 1);
+			childBounds[note] = this.step(next, last, note) + this.bound(next, note);
+			this.count(next, -1);
+		}
+		int[] children = this.order[next];
+		sortByBound(children, childBounds);
+		for (int note : children) {
+			if (!this.canImprove(score + childBounds[note])) {
+				// Children are sorted, so none of the others can either.
+				break;
+			}
+			this.notes[next] = note;
+			this.count(next, 1);
+			boolean finished = this.search(next, score + this.step(next, last, note));
+			this.count(next, -1);
+			if (!finished) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean canImprove(int bound) {
+		return this.solutions.size() < this.solutionCount || bound > this.solutions.peek().score;
+	}
+
+	private void offer(int score) {
+		if (this.canImprove(score)) {
+			this.solutions.add(new Solution(score, this.notes));
+			if (this.solutions.size() > this.solutionCount) {
+				this.solutions.poll();
+			}
+		}
+	}
+
+	/**
+	 * @return For each counter, table of the best score the notes after each
+	 *         position can add, given the note at the position, the count so
+	 *         far and the first note, with the punishment of that counter but
+	 *         not of the others. Counts above the limit are kept as one above
+	 *         it, as they are all punished the same.
+	 */
+	private int[][][][] computeBounds(int first) {
+		int[][][][] tables = new int[COUNTER_COUNT][][][];
+		for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+			int cap = this.limits[counter] + 1;
+			int[][][] table = new int[this.length][NOTE_COUNT + 1][cap + 1];
+			for (int note = 1; note <= NOTE_COUNT; note++) {
+				for (int count = 0; count <= cap; count++) {
+					table[this.length - 1][note][count] = this.punishment(counter, count);
+				}
+			}
+			for (int position = this.length - 2; position >= 0; position--) {
+				for (int note = 1; note <= NOTE_COUNT; note++) {
+					int[] best = table[position][note];
+					Arrays.fill(best, Integer.MIN_VALUE);
+					for (int next = 1; next <= NOTE_COUNT; next++) {
+						int step = this.step(position + 1, note, next, first);
+						int increment = this.increment(counter, position + 1, note, next, first);
+						int[] rest = table[position + 1][next];
+						for (int count = 0; count <= cap; count++) {
+							best[count] = Math.max(best[count], step + rest[Math.min(cap, count + increment)]);
+						}
+					}
+				}
+			}
+			tables[counter] = table;
+		}
+		return tables;
+	}
+
+	/**
+	 * @return Best score the notes after position can add, given the note
+	 *         there and the counters so far, with every threshold punishment.
+	 */
+	private int bound(int position, int note) {
+		int punishment = this.thresholdPunishment();
+		int best = Integer.MAX_VALUE;
+		for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+			int count = Math.min(this.limits[counter] + 1, this.counts[counter]);
+			int bound = this.bounds[counter][position][note][count] + punishment - this.punishment(counter, count);
+			best = Math.min(best, bound);
+		}
+		return best;
+	}
+
+	private int step(int position, int last, int note) {
+		return this.step(position, last, note, this.notes[0]);
+	}
+
+	/**
+	 * @return Score of the rules decided once the note at position follows
+	 *         last, leaving out the threshold punishments.
+	 */
+	private int step(int position, int last, int note, int first) {
+		int score = 0;
+		if (position <= this.length - 2 && this.isParallelFifthOctave(position - 1, last, position, note)) {
+			score -= PUNISH_PARALLEL_FIFTHS_OCTAVES;
+		}
+		if (position == this.length - 2) {
+			int preparation = Math.abs(note - last);
+			if (preparation == 0) {
+				score -= PUNISH_REPEATED_PENULTIMATE;
+			} else if (preparation < 2) {
+				score += REWARD_PENULTIMATE_PREPARATION;
+			} else {
+				score -= PUNISH_PENULTIMATE_PREPARATION;
+			}
+		}
+		if (position == this.length - 1) {
+			score += note - this.cantus[position] == 7 ? REWARD_LAST : -PUNISH_LAST;
+			score += Math.abs(note - last) == 1 ? REWARD_LAST_STEP : -PUNISH_LAST_STEP;
+			int cantusMotion = this.cantus[position] - this.cantus[position - 1];
+			int motion = note - last;
+			if ((cantusMotion < 0 && motion > 0) || (cantusMotion > 0 && motion < 0)) {
+				score += REWARD_LAST_MOTION;
+			} else {
+				score -= PUNISH_LAST_MOTION;
+			}
+			// The first note is compared against the last one.
+			if (this.isParallelFifthOctave(position, note, 0, first)) {
+				score -= PUNISH_PARALLEL_FIFTHS_OCTAVES;
+			}
+		}
+		return score;
+	}
+
+	private int first(int note) {
+		int interval = note - this.cantus[0];
+		return interval == 7 || interval == 4 ? REWARD_FIRST : -PUNISH_FIRST;
+	}
+
+	private boolean isParallelFifthOctave(int lastPosition, int last, int position, int note) {
+		int lastInterval = last - this.cantus[lastPosition];
+		int interval = note - this.cantus[position];
+		return (interval == 4 || interval == 7) && (lastInterval == 4 || lastInterval == 7);
+	}
+
+	/**
+	 * Adds (sign 1) or removes (sign -1) the counters of the note pair the
+	 * note at position completes.
+	 */
+	private void count(int position, int sign) {
+		for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+			this.counts[counter] += sign
+					* this.increment(counter, position, this.notes[position - 1], this.notes[position], this.notes[0]);
+		}
+	}
+
+	/**
+	 * @return How much a counter grows by when the note at position follows
+	 *         last. Like FirstSpecies.calculateFitness, the last note is
+	 *         paired with the first one instead of the one before it.
+	 */
+	private int increment(int counter, int position, int last, int note, int first) {
+		if (position <= this.length - 2) {
+			return this.pairIncrement(counter, position - 1, last, position, note);
+		}
+		return this.pairIncrement(counter, position, note, 0, first);
+	}
+
+	private int pairIncrement(int counter, int lastPosition, int last, int position, int note) {
+		int lastInterval = last - this.cantus[lastPosition];
+		int interval = note - this.cantus[position];
+		switch (counter) {
+		case REPEATS:
+			return note == last ? 1 : 0;
+		case THIRDS:
+			return interval == 2 && lastInterval == 2 ? 1 : 0;
+		case SIXTHS:
+			return interval == 4 && lastInterval == 4 ? 1 : 0;
+		case PARALLEL:
+			int lastCantus = this.cantus[lastPosition];
+			int cantus = this.cantus[position];
+			return (last < note && lastCantus < cantus) || (last > note && lastCantus > cantus) ? 1 : 0;
+		case LEAPS:
+			int leap = Math.abs(note - last);
+			return leap > 2 ? leap - 2 : 0;
+		default:
+			throw new IllegalArgumentException("No counter " + counter);
+		}
+	}
+
+	private int punishment(int counter, int count) {
+		return count > this.limits[counter] ? -PUNISHMENTS[counter] : 0;
+	}
+
+	/**
+	 * @return Threshold punishments of the counters so far. Counters only
+	 *         grow, so these can only get worse.
+	 */
+	private int thresholdPunishment() {
+		int punishment = 0;
+		for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+			punishment += this.punishment(counter, this.counts[counter]);
+		}
+		return punishment;
+	}
+
+	/**
+	 * Fills notes with 1..17, highest bound first.
+	 */
+	private static void sortByBound(int[] notes, int[] bounds) {
+		for (int i = 0; i < NOTE_COUNT; i++) {
+			int note = i + 1;
+			int j = i;
+			while (j > 0 && bounds[notes[j - 1]] < bounds[note]) {
+				notes[j] = notes[j - 1];
+				j--;
+			}
+			notes[j] = note;
+		}
+	}
+
+	private static int tenths(float value) {
+		return Math.round(value * 10);
+	}
+
+	private static class Solution implements Comparable<Solution> {
+		private int score;
+		private List<Integer> notes;
+
+		Solution(int score, int[] notes) {
+			this.score = score;
+			this.notes = new ArrayList<>();
+			for (int note : notes) {
+				this.notes.add(note);
+			}
+		}
+
+		@Override
+		public int compareTo(Solution that) {
+			return Integer.compare(this.score, that.score);
+		}
+	}
+
+}
@@ -5,10 +5,10 @@ import java.util.List;
 public class FirstSpecies {
 
 	// Some sane defaults.
-	int DEFAULT_POPULATION_SIZE = 1000;
-	int DEFAULT_MAX_GENERATION = 100;
-	int DEFAULT_MUTATION_RANGE = 7;
-	float DEFAULT_MUTATION_RATE = 0.4f;
+	static final int DEFAULT_POPULATION_SIZE = 1000;
+	static final int DEFAULT_MAX_GENERATION = 100;
+	static final int DEFAULT_MUTATION_RANGE = 7;
+	static final float DEFAULT_MUTATION_RATE = 0.4f;
 
 	// Intervals between notes that are allowed in first sepcies counterpoint.
 	int[] VALID_INTERVALS = { 2, 4, 5, 7, 9, 11 };
@@ -53,53 +53,187 @@ public class FirstSpecies {
 	static int MAX_REWARD = (REWARD_FIRST + REWARD_LAST + REWARD_LAST_STEP + REWARD_LAST_MOTION
 			+ REWARD_PENULTIMATE_PREPARATION);
 
+	// Bits recorded per note pair by the body rules.
+	private static final byte PARALLEL_FIFTH_OCTAVE = 1;
+	private static final byte REPEAT = 1 << 1;
+	private static final byte THIRD = 1 << 2;
+	private static final byte SIXTH = 1 << 3;
+	private static final byte PARALLEL_MOTION = 1 << 4;
+
+	/**
+	 * Per-pair results and counters of the body rules for one contrapunctus.
+	 * Keeping it with the chromosome means changing k notes costs O(k) to
+	 * re-score instead of a scan of the whole contrapunctus.
+	 */
+	static class Tally {
+		// Indexed by the position of the current note of each pair. The
+		// pair at 0 compares the first note against the last one.
+		final byte[] flags;
+		final byte[] leaps;
+		int parallelFifths;
+		int repeats;
+		int thirds;
+		int sixths;
+		int parallelMotion;
+		int jumpContour;
+
+		Tally(int pairs) {
+			this.flags = new byte[pairs];
+			this.leaps = new byte[pairs];
+		}
+
+		Tally(Tally that) {
+			this.flags = that.flags.clone();
+			this.leaps = that.leaps.clone();
+			this.copyCounters(that);
+		}
+
+		void copyFrom(Tally that) {
+			System.arraycopy(that.flags, 0, this.flags, 0, this.flags.length);
+			System.arraycopy(that.leaps, 0, this.leaps, 0, this.leaps.length);
+			this.copyCounters(that);
+		}
+
+		private void copyCounters(Tally that) {
+			this.parallelFifths = that.parallelFifths;
+			this.repeats = that.repeats;
+			this.thirds = that.thirds;
+			this.sixths = that.sixths;
+			this.parallelMotion = that.parallelMotion;
+			this.jumpContour = that.jumpContour;
+		}
+	}
+
 	public static float calculateFitness(Chromosome chromosome, List<Integer> cantusFirmus){
 		/*
         Given a candidate solution will return its fitness score assuming
-        the cantusFirmus in this closure. Caches the fitness score in the
-        genome.
+        the cantusFirmus in this closure.
         */
+        return score(tally(chromosome, cantusFirmus), chromosome, cantusFirmus);
+	}
+
+	/**
+	 * Runs the body rules over every note pair of the contrapunctus.
+	 */
+	static Tally tally(Chromosome chromosome, List<Integer> cantusFirmus){
+        Tally tally = new Tally(chromosome.size() - 1);
+        for (int i = 0; i < tally.flags.length; i++)
+            retallyPair(tally, chromosome, cantusFirmus, i);
+        return tally;
+	}
+
+	/**
+	 * Updates the tally after the note at position has changed. Only the
+	 * pairs the note takes part in are checked again.
+	 */
+	static void retally(Tally tally, Chromosome chromosome, List<Integer> cantusFirmus, int position){
+        int pairs = tally.flags.length;
+        if (position < pairs)
+            retallyPair(tally, chromosome, cantusFirmus, position);
+        if (position + 1 < pairs)
+            retallyPair(tally, chromosome, cantusFirmus, position + 1);
+        // The last note is compared against the first one.
+        if (position == pairs)
+            retallyPair(tally, chromosome, cantusFirmus, 0);
+	}
+
+	private static void retallyPair(Tally tally, Chromosome chromosome, List<Integer> cantusFirmus, int i){
+        int length = chromosome.size();
+        int last = i == 0 ? length - 1 : i - 1;
+        int last_note = chromosome.getGene(last);
+        int last_cantus = cantusFirmus.get(last);
+        int current_note = chromosome.getGene(i);
+        int current_cantus = cantusFirmus.get(i);
+        int last_interval = last_note - last_cantus;
+        int current_interval = current_note - current_cantus;
+
+        byte flags = 0;
+        // Punish parallel fifths or octaves.
+        if (((current_interval == 4 || current_interval == 7) &&
+            (last_interval == 4 || last_interval == 7)))
+            flags |= PARALLEL_FIFTH_OCTAVE;
+
+        // Check if the melody is a repeating note.
+        if (current_note == last_note)
+            flags |= REPEAT;
+
+        // Check for parallel thirds.
+        if (current_interval == 2 && last_interval == 2)
+            flags |= THIRD;
+
+        // Check for parallel sixths.
+        if (current_interval == 4 && last_interval == 4)
+            flags |= SIXTH;
+
+        // Check for parallel motion.
+        if ((last_note < current_note && last_cantus < current_cantus) ||
+            (last_note > current_note && last_cantus > current_cantus))
+            flags |= PARALLEL_MOTION;
+
+        // Check the melodic contour.
+        int contour_leap = Math.abs(current_note - last_note);
+        byte leap = (byte) (contour_leap > 2 ? contour_leap - 2 : 0);
+
+        byte old = tally.flags[i];
+        tally.parallelFifths += bit(flags, PARALLEL_FIFTH_OCTAVE) - bit(old, PARALLEL_FIFTH_OCTAVE);
+        tally.repeats += bit(flags, REPEAT) - bit(old, REPEAT);
+        tally.thirds += bit(flags, THIRD) - bit(old, THIRD);
+        tally.sixths += bit(flags, SIXTH) - bit(old, SIXTH);
+        tally.parallelMotion += bit(flags, PARALLEL_MOTION) - bit(old, PARALLEL_MOTION);
+        tally.flags[i] = flags;
+        tally.jumpContour += leap - tally.leaps[i];
+        tally.leaps[i] = leap;
+	}
+
+	private static int bit(byte flags, byte mask){
+        return (flags & mask) != 0 ? 1 : 0;
+	}
+
+	/**
+	 * Combines the rules on the first and last notes with the counters of
+	 * the tally into the fitness score.
+	 */
+	static float score(Tally tally, Chromosome chromosome, List<Integer> cantusFirmus){
+        int length = chromosome.size();
+        return score(tally, chromosome.getGene(0), chromosome.getGene(length-3), chromosome.getGene(length-2),
+                chromosome.getGene(length-1), cantusFirmus);
+	}
+
+	/**
+	 * Like score(Tally, Chromosome, List), given only the notes the rules on
+	 * the first and last notes read. Only the counters of the tally are used,
+	 * so batches of genomes can share this step with single ones.
+	 */
+	static float score(Tally tally, int first, int antepenultimate, int penultimate, int last,
+			List<Integer> cantusFirmus){
 	    float repeat_threshold = (float) ((float) (cantusFirmus.size()) * 0.5);
 	    float jump_threshold = (float) ((float) (cantusFirmus.size()) * 0.3);
 
 	    // The fitness score to be returned.
 	    float fitnessScore = 0;
-	    
-        // Counts the number of repeated notes in the contrapunctus.
-        int repeats = 0;
-        // Counts consecutive parallel thirds.
-        int thirds = 0;
-        // Counts consecutive parallel sixths.
-        int sixths = 0;
-        // Counts the amount of parallel motion.
-        int parallel_motion = 0;
-        // Counts the number of jumps in the melodic contour.
-        int jump_contour = 0;
-
-        List<Integer> contrapunctus = chromosome.getGenes();
 
         // Make sure the solution starts correctly (at a 5th or octave).
-        int first_interval = contrapunctus.get(0) - cantusFirmus.get(0);
+        int first_interval = first - cantusFirmus.get(0);
         if (first_interval == 7 || first_interval == 4)
             fitnessScore += REWARD_FIRST;
         else
             fitnessScore -= PUNISH_FIRST;
 
         // Make sure the solution finishes correctly (at an octave).
-        if (contrapunctus.get(contrapunctus.size()-1) - cantusFirmus.get(cantusFirmus.size()-1) == 7)
+        if (last - cantusFirmus.get(cantusFirmus.size()-1) == 7)
             fitnessScore += REWARD_LAST;
         else
             fitnessScore -= PUNISH_LAST;
 
         // Ensure the penultimate note is step wise onto the final note.
-        if (Math.abs(contrapunctus.get(contrapunctus.size()-1) - contrapunctus.get(contrapunctus.size()-2)) == 1)
+        if (Math.abs(last - penultimate) == 1)
             fitnessScore += REWARD_LAST_STEP;
         else
             fitnessScore -= PUNISH_LAST_STEP;
 
         // Reward contrary motion onto the final note.
         int cantusFirmus_motion = cantusFirmus.get(cantusFirmus.size()-1) - cantusFirmus.get(cantusFirmus.size()-2);
-        int contrapunctus_motion = contrapunctus.get(contrapunctus.size()-1) - contrapunctus.get(contrapunctus.size()-2);
+        int contrapunctus_motion = last - penultimate;
 
         if ((cantusFirmus_motion < 0 && contrapunctus_motion > 0) ||
             (cantusFirmus_motion > 0 && contrapunctus_motion < 0)){
@@ -109,7 +243,7 @@ public class FirstSpecies {
         }
 
         // Make sure the penultimate note isn't a repeated note.
-        int penultimate_preparation = Math.abs(contrapunctus.get(contrapunctus.size()-2) - contrapunctus.get(contrapunctus.size()-3));
+        int penultimate_preparation = Math.abs(penultimate - antepenultimate);
         if (penultimate_preparation == 0){
             fitnessScore -= PUNISH_REPEATED_PENULTIMATE;
         }else{
@@ -122,62 +256,27 @@ public class FirstSpecies {
             }
         }
 
-        // Check the fitness of the body of the solution.
-        int[] last_notes = {contrapunctus.get(contrapunctus.size()-1), cantusFirmus.get(cantusFirmus.size()-1)};
-        int last_interval = last_notes[0] - last_notes[1];
-        //for contrapunctus_note, cantusFirmus_note in solution[1:]{
-        for(int i=0; i<contrapunctus.size()-1; i++){
-            int[] current_notes = {contrapunctus.get(i), cantusFirmus.get(i)};
-            int current_interval = contrapunctus.get(i) - cantusFirmus.get(i);
-
-            // Punish parallel fifths or octaves.
-            if (((current_interval == 4 || current_interval == 7) &&
-                (last_interval == 4 || last_interval == 7)))
-                fitnessScore -= PUNISH_PARALLEL_FIFTHS_OCTAVES;
-
-            // Check if the melody is a repeating note.
-            if (contrapunctus.get(i) == last_notes[0])
-                repeats += 1;
-
-            // Check for parallel thirds.
-            if (current_interval == 2 && last_interval == 2)
-                thirds += 1;
-
-            // Check for parallel sixths.
-            if (current_interval == 4 && last_interval == 4)
-                sixths += 1;
-
-            // Check for parallel motion.
-            if (Utils.isParallel(last_notes, current_notes))
-                parallel_motion += 1;
-
-            // Check the melodic contour.
-            int contour_leap = Math.abs(current_notes[0] - last_notes[0]);
-            if (contour_leap > 2)
-                jump_contour += contour_leap - 2;
-
-            last_notes = current_notes;
-            last_interval = current_interval;
-        }
+        // Punish parallel fifths or octaves.
+        fitnessScore -= tally.parallelFifths * PUNISH_PARALLEL_FIFTHS_OCTAVES;
 
         // Punish too many (> 1/3) repeated notes.
-        if (repeats > repeat_threshold)
+        if (tally.repeats > repeat_threshold)
             fitnessScore -= PUNISH_REPEATS;
 
         // Punish too many (> 1/3) parallel thirds
-        if (thirds > repeat_threshold)
+        if (tally.thirds > repeat_threshold)
             fitnessScore -= PUNISH_THIRDS;
 
         // Punish too many (> 1/3) parallel sixths.
-        if (sixths > repeat_threshold)
+        if (tally.sixths > repeat_threshold)
             fitnessScore -= PUNISH_SIXTHS;
 
         // Punish too many (> 1/3) parallel movements.
-        if (parallel_motion > repeat_threshold)
+        if (tally.parallelMotion > repeat_threshold)
             fitnessScore -= PUNISH_PARALLEL;
 
         // Punish too many large leaps in the melody.
-        if (jump_contour > jump_threshold)
+        if (tally.jumpContour > jump_threshold)
             fitnessScore -= PUNISH_LEAPS;
 
         return fitnessScore;
@@ -0,0 +1,107 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scores a block of first species genomes in one call. The notes are kept by
+ * position, so the body rules can run across genomes in vector lanes when
+ * VectorFitnessKernel is on the class path and jdk.incubator.vector is
+ * added; otherwise one genome at a time. Both give exactly the scores of
+ * FirstSpecies.calculateFitness.
+ *
+ * Set the system property net.milgar.joox.fitnessKernel to "scalar" to
+ * leave the Vector API out.
+ */
+public class FitnessBatch {
+	private static final FitnessKernel KERNEL = loadKernel();
+
+	private List<Integer> cantusFirmus;
+	private int[] cantus;
+	private int capacity;
+	private int[] notes;
+	private int[] counters;
+	// Counters of one genome at a time, for FirstSpecies.score.
+	private FirstSpecies.Tally tally = new FirstSpecies.Tally(0);
+
+	/**
+	 * @param capacity
+	 *            Greatest number of genomes scored in one call.
+	 */
+	public FitnessBatch(List<Integer> cantusFirmus, int capacity) {
+		if (cantusFirmus.size() < 3) {
+			throw new IllegalArgumentException("Cantus firmus needs at least 3 notes: " + cantusFirmus.size());
+		}
+		this.cantusFirmus = Collections.unmodifiableList(new ArrayList<>(cantusFirmus));
+		this.cantus = new int[cantusFirmus.size()];
+		for (int i = 0; i < this.cantus.length; i++) {
+			this.cantus[i] = cantusFirmus.get(i);
+		}
+		this.capacity = capacity;
+		this.notes = new int[this.cantus.length * capacity];
+		this.counters = new int[FitnessKernel.COUNTER_ROWS * capacity];
+	}
+
+	private static FitnessKernel loadKernel() {
+		if (!"scalar".equals(System.getProperty("net.milgar.joox.fitnessKernel"))) {
+			try {
+				return (FitnessKernel) Class.forName("net.milgar.joox.VectorFitnessKernel").getDeclaredConstructor()
+						.newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Not compiled in, or jdk.incubator.vector is not added.
+			}
+		}
+		return new ScalarFitnessKernel();
+	}
+
+	/**
+	 * @return Name of the kernel the body rules run on.
+	 */
+	public static String getKernelName() {
+		return KERNEL.getClass().getSimpleName();
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Sets the note at position of the genome at index.
+	 */
+	public void setGene(int index, int position, int note) {
+		this.notes[position * this.capacity + index] = note;
+	}
+
+	/**
+	 * Copies the genes of the chromosome into the genome at index.
+	 */
+	public void set(int index, Chromosome chromosome) {
+		for (int position = 0; position < this.cantus.length; position++) {
+			this.notes[position * this.capacity + index] = chromosome.getGene(position);
+		}
+	}
+
+	/**
+	 * Scores the first count genomes into fitness.
+	 */
+	public void score(int count, float[] fitness) {
+		if (count > this.capacity) {
+			throw new IllegalArgumentException("Batch holds " + this.capacity + " genomes, not " + count);
+		}
+		KERNEL.tally(this.notes, this.capacity, count, this.cantus, this.counters);
+		int length = this.cantus.length;
+		for (int g = 0; g < count; g++) {
+			this.tally.parallelFifths = this.counters[FitnessKernel.PARALLEL_FIFTHS * this.capacity + g];
+			this.tally.repeats = this.counters[FitnessKernel.REPEATS * this.capacity + g];
+			this.tally.thirds = this.counters[FitnessKernel.THIRDS * this.capacity + g];
+			this.tally.sixths = this.counters[FitnessKernel.SIXTHS * this.capacity + g];
+			this.tally.parallelMotion = this.counters[FitnessKernel.PARALLEL_MOTION * this.capacity + g];
+			this.tally.jumpContour = this.counters[FitnessKernel.JUMP_CONTOUR * this.capacity + g];
+			fitness[g] = FirstSpecies.score(this.tally, this.notes[g], this.notes[(length - 3) * this.capacity + g],
+					this.notes[(length - 2) * this.capacity + g], this.notes[(length - 1) * this.capacity + g],
+					this.cantusFirmus);
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package net.milgar.joox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of fitness scores keyed by the notes of a contrapunctus, its
+ * cantus firmus and the species, so that duplicate genomes are only scored
+ * once. Populations of different cantus firmi may share a cache.
+ * 
+ * The cache is split into segments, each locked on its own and evicting its
+ * least recently used entries, so it can be used by several threads.
+ */
+public class FitnessCache {
+	private static final int SEGMENT_COUNT = 16;
+	// Notes are in 1..17, so 5 bits hold one.
+	private static final int BITS_PER_NOTE = 5;
+	private static final int NOTES_PER_WORD = 64 / BITS_PER_NOTE;
+
+	private Segment[] segments;
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+
+	public FitnessCache(int capacity) {
+		if (capacity < SEGMENT_COUNT) {
+			throw new IllegalArgumentException("Capacity must be at least " + SEGMENT_COUNT + ": " + capacity);
+		}
+		this.segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			this.segments[i] = new Segment(capacity / SEGMENT_COUNT);
+		}
+	}
+
+	/**
+	 * Sets the fitness of the chromosome for species from the cache, or
+	 * scores and caches it. Packs the genome once, where lookUp and store
+	 * would each pack it.
+	 * 
+	 * @return True if the score came from the cache.
+	 */
+	public boolean evaluate(Chromosome chromosome, Utils.Species species) {
+		Key key = new Key(chromosome, species);
+		Segment segment = this.segmentOf(key);
+		Float cached;
+		synchronized (segment) {
+			cached = segment.get(key);
+		}
+		if (cached != null) {
+			this.hits.increment();
+			chromosome.setFitness(species, cached);
+			return true;
+		}
+		this.misses.increment();
+		float fitness = chromosome.getFitness(species);
+		synchronized (segment) {
+			segment.put(key, fitness);
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the fitness of the chromosome for species from the cache.
+	 * 
+	 * @return False if the genome is not cached.
+	 */
+	public boolean lookUp(Chromosome chromosome, Utils.Species species) {
+		Key key = new Key(chromosome, species);
+		Float fitness;
+		Segment segment = this.segmentOf(key);
+		synchronized (segment) {
+			fitness = segment.get(key);
+		}
+		if (fitness == null) {
+			this.misses.increment();
+			return false;
+		}
+		this.hits.increment();
+		chromosome.setFitness(species, fitness);
+		return true;
+	}
+
+	/**
+	 * Caches the fitness of the chromosome for species, scoring it first if
+	 * needed.
+	 */
+	public void store(Chromosome chromosome, Utils.Species species) {
+		Key key = new Key(chromosome, species);
+		float fitness = chromosome.getFitness(species);
+		Segment segment = this.segmentOf(key);
+		synchronized (segment) {
+			segment.put(key, fitness);
+		}
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * @return Share of look ups found in the cache, 0 before the first one.
+	 */
+	public double getHitRate() {
+		long hits = this.hits.sum();
+		long total = hits + this.misses.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	private Segment segmentOf(Key key) {
+		// Spread the hash so that segments do not follow its low bits only.
+		int hash = key.hash ^ (key.hash >>> 16);
+		return this.segments[(hash & 0x7fffffff) % SEGMENT_COUNT];
+	}
+
+	private static class Segment extends LinkedHashMap<Key, Float> {
+		private static final long serialVersionUID = 1L;
+		private int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Float> eldest) {
+			return this.size() > this.capacity;
+		}
+	}
+
+	/**
+	 * Notes of a contrapunctus packed 5 bits each, plus its cantus firmus and
+	 * the species.
+	 */
+	private static class Key {
+		private long[] notes;
+		// Read-only and shared with the chromosome, so not copied.
+		private List<Integer> cantusFirmus;
+		private int species;
+		private int hash;
+
+		Key(Chromosome chromosome, Utils.Species species) {
+			int length = chromosome.size();
+			this.notes = new long[(length + NOTES_PER_WORD - 1) / NOTES_PER_WORD];
+			for (int i = 0; i < length; i++) {
+				this.notes[i / NOTES_PER_WORD] |=
+						(long) chromosome.getGene(i) << (BITS_PER_NOTE * (i % NOTES_PER_WORD));
+			}
+			this.cantusFirmus = chromosome.getCantusFirmus();
+			this.species = species.ordinal();
+			this.hash = 31 * (31 * Arrays.hashCode(this.notes) + this.cantusFirmus.hashCode()) + this.species;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) obj;
+			return this.hash == that.hash && this.species == that.species && Arrays.equals(this.notes, that.notes)
+					&& (this.cantusFirmus == that.cantusFirmus || this.cantusFirmus.equals(that.cantusFirmus));
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package net.milgar.joox;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Draws the best fitness of each generation of any number of runs as a PNG
+ * line chart, locally and without a limit on the length of the series.
+ */
+public class FitnessChart {
+	private static final Color[] COLORS = { Color.RED, Color.BLUE, Color.ORANGE, Color.CYAN };
+	private static final int DIVISIONS = 4;
+	private static final int MARGIN = 40;
+
+	private int width;
+	private int height;
+	private String title = "Genetic Algorithm on Music Composition";
+
+	public FitnessChart() {
+		this(400, 400);
+	}
+
+	public FitnessChart(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	/**
+	 * @return False if the chart could not be written to path.
+	 */
+	public boolean write(List<List<Double>> runs, String path) {
+		try {
+			return ImageIO.write(this.draw(runs), "png", new File(path));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * @return The chart of every run, one line each.
+	 */
+	public BufferedImage draw(List<List<Double>> runs) {
+		double minFitness = Double.MAX_VALUE;
+		double maxFitness = -Double.MAX_VALUE;
+		int generations = 1;
+		for (List<Double> run : runs) {
+			for (double fitness : run) {
+				minFitness = Math.min(minFitness, fitness);
+				maxFitness = Math.max(maxFitness, fitness);
+			}
+			generations = Math.max(generations, run.size());
+		}
+		if (minFitness > maxFitness) {
+			minFitness = 0;
+			maxFitness = 0;
+		}
+		// Leave some room above and below the lines.
+		minFitness -= 0.5;
+		maxFitness += 0.5;
+
+		BufferedImage image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setColor(Color.LIGHT_GRAY);
+			g.fillRect(0, 0, this.width, this.height);
+
+			int left = MARGIN;
+			int top = MARGIN;
+			int plotWidth = this.width - 2 * MARGIN;
+			int plotHeight = this.height - 3 * MARGIN;
+			FontMetrics metrics = g.getFontMetrics();
+
+			g.setColor(Color.BLACK);
+			int titleX = (this.width - metrics.stringWidth(this.title)) / 2;
+			g.drawString(this.title, titleX, top / 2 + metrics.getAscent() / 2);
+
+			// Grid and axis labels.
+			for (int i = 0; i <= DIVISIONS; i++) {
+				int x = left + plotWidth * i / DIVISIONS;
+				int y = top + plotHeight - plotHeight * i / DIVISIONS;
+				g.setColor(Color.GRAY);
+				g.drawLine(x, top, x, top + plotHeight);
+				g.drawLine(left, y, left + plotWidth, y);
+				g.setColor(Color.BLACK);
+				String generation = Integer.toString((int) Math.round((double) generations * i / DIVISIONS));
+				g.drawString(generation, x - metrics.stringWidth(generation) / 2,
+						top + plotHeight + metrics.getAscent() + 2);
+				String fitness = String.format("%.1f", minFitness + (maxFitness - minFitness) * i / DIVISIONS);
+				g.drawString(fitness, left - metrics.stringWidth(fitness) - 4, y + metrics.getAscent() / 2);
+			}
+
+			g.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+			int legendY = top + plotHeight + 2 * metrics.getHeight() + 4;
+			int legendX = left;
+			for (int r = 0; r < runs.size(); r++) {
+				List<Double> run = runs.get(r);
+				Color color = color(r);
+				Path2D.Double line = new Path2D.Double(Path2D.WIND_NON_ZERO, run.size());
+				for (int i = 0; i < run.size(); i++) {
+					double x = left + (generations > 1 ? (double) plotWidth * i / (generations - 1) : 0);
+					double y = top + plotHeight - plotHeight * (run.get(i) - minFitness) / (maxFitness - minFitness);
+					if (i == 0) {
+						line.moveTo(x, y);
+					} else {
+						line.lineTo(x, y);
+					}
+				}
+				g.setColor(color);
+				g.draw(line);
+
+				String legend = (r + 1) + ". Sonuç";
+				int legendWidth = 16 + metrics.stringWidth(legend) + 12;
+				if (legendX > left && legendX + legendWidth > this.width) {
+					legendX = left;
+					legendY += metrics.getHeight();
+				}
+				int mark = legendY - metrics.getAscent() / 2;
+				g.drawLine(legendX, mark, legendX + 12, mark);
+				g.setColor(Color.BLACK);
+				g.drawString(legend, legendX + 16, legendY);
+				legendX += legendWidth;
+			}
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * @return The color of the run at index, spreading hues when the fixed
+	 *         colors run out.
+	 */
+	private static Color color(int index) {
+		if (index < COLORS.length) {
+			return COLORS[index];
+		}
+		return Color.getHSBColor((index * 0.618034f) % 1, 0.8f, 0.8f);
+	}
+
+}
@@ -0,0 +1,32 @@
+package net.milgar.joox;
+
+/**
+ * Runs the body rules of first species counterpoint over a block of genomes
+ * at once. Implementations must count exactly like FirstSpecies.tally.
+ */
+interface FitnessKernel {
+
+	/** Rows of the counters, in the order of the Tally counters. */
+	int PARALLEL_FIFTHS = 0;
+	int REPEATS = 1;
+	int THIRDS = 2;
+	int SIXTHS = 3;
+	int PARALLEL_MOTION = 4;
+	int JUMP_CONTOUR = 5;
+	int COUNTER_ROWS = 6;
+
+	/**
+	 * @param notes
+	 *            Notes of the genomes by position: the note at position p of
+	 *            genome g is at p * stride + g.
+	 * @param count
+	 *            Number of genomes, at most stride.
+	 * @param cantusFirmus
+	 *            One note per position.
+	 * @param counters
+	 *            Set to the counters of every genome: counter r of genome g
+	 *            at r * stride + g.
+	 */
+	void tally(int[] notes, int stride, int count, int[] cantusFirmus, int[] counters);
+
+}
@@ -0,0 +1,11 @@
+package net.milgar.joox;
+
+/**
+ * Receives the summary of each generation while a genetic algorithm runs.
+ * Called on the thread running the algorithm.
+ */
+public interface GenerationListener {
+
+	void onGeneration(GenerationSummary summary);
+
+}
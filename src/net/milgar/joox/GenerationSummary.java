@@ -0,0 +1,77 @@
+package net.milgar.joox;
+
+/**
+ * Fitness statistics and best chromosome of one generation.
+ */
+public class GenerationSummary {
+	private int generation;
+	private float bestFitness;
+	private float meanFitness;
+	private float worstFitness;
+	private Chromosome bestChromosome;
+	private long evaluationCount;
+	private float diversity;
+
+	public GenerationSummary(int generation, float bestFitness, float meanFitness, float worstFitness,
+			Chromosome bestChromosome, long evaluationCount, float diversity) {
+		this.generation = generation;
+		this.bestFitness = bestFitness;
+		this.meanFitness = meanFitness;
+		this.worstFitness = worstFitness;
+		this.bestChromosome = bestChromosome;
+		this.evaluationCount = evaluationCount;
+		this.diversity = diversity;
+	}
+
+	/**
+	 * @return Index of the generation, 0 for the first one.
+	 */
+	public int getGeneration() {
+		return this.generation;
+	}
+
+	public float getBestFitness() {
+		return this.bestFitness;
+	}
+
+	public float getMeanFitness() {
+		return this.meanFitness;
+	}
+
+	public float getWorstFitness() {
+		return this.worstFitness;
+	}
+
+	/**
+	 * @return Copy of the best chromosome of the generation.
+	 */
+	public Chromosome getBestChromosome() {
+		return this.bestChromosome;
+	}
+
+	/**
+	 * @return Fitness evaluations done from the start of the run up to and
+	 *         including this generation.
+	 */
+	public long getEvaluationCount() {
+		return this.evaluationCount;
+	}
+
+	/**
+	 * @return Population diversity as given by Population.getDiversity(), or
+	 *         NaN if it was not computed for this generation. The genetic
+	 *         algorithm computes it only when a termination criterion or rate
+	 *         control needs it, or when diversity tracking is on.
+	 */
+	public float getDiversity() {
+		return this.diversity;
+	}
+
+	@Override
+	public String toString() {
+		return "Generation " + this.generation + ": best " + this.bestFitness + ", mean " + this.meanFitness
+				+ ", worst " + this.worstFitness + ", diversity " + this.getDiversity() + ", evaluations "
+				+ this.evaluationCount;
+	}
+
+}
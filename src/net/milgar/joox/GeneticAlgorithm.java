@@ -1,8 +1,11 @@
 package net.milgar.joox;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class GeneticAlgorithm {
 	private int populationSize;
@@ -11,8 +14,36 @@ public class GeneticAlgorithm {
 	private Utils.Species species;
 	private float crossOverRate;
 	private float mutationRate;
-	private Random rnd;
-	private List<Population> populations;
+	private SplittableRandom rnd;
+	// Only the current generation is kept; earlier ones are reduced to the
+	// values below as they are produced. The next generation is written over
+	// the spare population, and the two are swapped.
+	private AbstractPopulation<?> current;
+	private AbstractPopulation<?> spare;
+	// Whether generations are PackedPopulations instead of Populations.
+	private boolean isPacked;
+	private int generationCount;
+	private Chromosome bestOfFirstGeneration;
+	private List<Double> bestFitnessOfEachGeneration;
+	private GenerationListener listener;
+	private int parallelism = 1;
+	private Executor executor;
+	private int eliteCount = 1;
+	private Selection selection = new TournamentSelection(2);
+	private FitnessCache fitnessCache;
+	private EngineMetrics metrics;
+	private RateControl rateControl;
+	private int mutationRange;
+	private boolean isSelfAdaptive;
+	private boolean isDiversityTracked;
+	private List<TerminationCriterion> terminationCriteria = new ArrayList<>();
+	// Why the run stopped, null while it is going on.
+	private String terminationReason;
+	private Checkpoint checkpoint;
+	private int checkpointInterval;
+	private int checkpointedGeneration;
+	// Set by restore, so that the next run goes on instead of starting over.
+	private boolean isRestored;
 
 	public GeneticAlgorithm(int populationSize, int iterationCount, List<Integer> cantusFirmus, Utils.Species species,
 			float crossOverRate, float mutationRate) {
@@ -20,45 +51,458 @@ public class GeneticAlgorithm {
 		this.iterationCount = iterationCount;
 		this.cantusFirmus = new ArrayList<>(cantusFirmus);
 		this.species = species;
-		this.rnd = new Random();
+		this.rnd = new SplittableRandom();
 		this.crossOverRate = crossOverRate;
 		this.mutationRate = mutationRate;
+	}
+
+	/**
+	 * Makes runs reproducible: two algorithms with the same settings and seed
+	 * create the same generations, whatever their parallelism.
+	 */
+	public void setSeed(long seed) {
+		this.rnd = new SplittableRandom(seed);
+	}
 
-		this.createGenerations();
+	void setRandom(SplittableRandom rnd) {
+		this.rnd = rnd;
+	}
+
+	/**
+	 * Sets how many chunks each population is scored in at most; see
+	 * Population.setParallelism. 1 keeps the whole run on the calling thread.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.parallelism = parallelism;
 	}
 
-	private void createGenerations() {
+	/**
+	 * Sets the executor fitness chunks run on, instead of the common
+	 * fork-join pool.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
 
-		this.populations = new ArrayList<>();
+	/**
+	 * Sets how many of the best chromosomes are copied unchanged into each
+	 * next generation.
+	 */
+	public void setEliteCount(int eliteCount) {
+		this.eliteCount = eliteCount;
+	}
 
-		this.populations.add(new Population(this.populationSize, this.species, this.cantusFirmus, this.crossOverRate,
-				this.mutationRate));
+	/**
+	 * Sets how the parents of each generation are picked. Algorithms running
+	 * at the same time need their own instance.
+	 */
+	public void setSelection(Selection selection) {
+		this.selection = selection;
+	}
 
-		for (int currentPopulation = 1; currentPopulation < this.iterationCount; currentPopulation++) {
-			Population nextGen = this.populations.get(currentPopulation - 1).createNextGeneration();
-			this.populations.add(nextGen);
+	/**
+	 * Sets the cache fitness scores are looked up in before chromosomes are
+	 * scored. Algorithms may share one, whatever their cantus firmus.
+	 * 
+	 * @throws IllegalStateException
+	 *             If generations are packed, which score without a cache.
+	 */
+	public void setFitnessCache(FitnessCache fitnessCache) {
+		if (fitnessCache != null && this.isPacked) {
+			throw new IllegalStateException("Packed storage does not use a fitness cache");
 		}
+		this.fitnessCache = fitnessCache;
+	}
 
-		for (int k = 0; k < this.populations.size(); k++) {
-			this.populations.get(k).sort();
+	/**
+	 * Sets whether generations are stored as PackedPopulations, which take a
+	 * few bytes per member and score them in batches, instead of a
+	 * Population of chromosomes. Both create the same generations from the
+	 * same seed. Takes effect when the next run starts or is restored.
+	 * 
+	 * @throws IllegalStateException
+	 *             If a fitness cache is set, which packed generations do not
+	 *             use.
+	 */
+	public void setPackedStorage(boolean isPacked) {
+		if (isPacked && this.fitnessCache != null) {
+			throw new IllegalStateException("Packed storage does not use a fitness cache");
 		}
+		this.isPacked = isPacked;
 	}
 
-	public List<Double> getBestFitnessOfEachGeneration() {
-		List<Double> bestFitnessOfPopulations = new ArrayList<>();
-		for (int k = 0; k < iterationCount; k++) {
-			double fitness = populations.get(k).getBestChromosome().getFitness(Utils.Species.First);
-			bestFitnessOfPopulations.add(fitness);
+	/**
+	 * Sets the metrics the run is recorded in. Algorithms may share them.
+	 */
+	public void setMetrics(EngineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets what adjusts the crossover and mutation rates after every
+	 * generation. Algorithms running at the same time need their own
+	 * instance.
+	 * 
+	 * @throws IllegalStateException
+	 *             If mutation is self-adaptive, which would ignore the
+	 *             mutation rate it sets.
+	 */
+	public void setRateControl(RateControl rateControl) {
+		if (rateControl != null && this.isSelfAdaptive) {
+			throw new IllegalStateException("Rate control and self-adaptive mutation cannot be combined");
+		}
+		this.rateControl = rateControl;
+	}
+
+	/**
+	 * Sets the largest step a mutation moves a note by, 0 for any note.
+	 */
+	public void setMutationRange(int mutationRange) {
+		if (mutationRange < 0) {
+			throw new IllegalArgumentException("Mutation range must not be negative: " + mutationRange);
+		}
+		this.mutationRange = mutationRange;
+	}
+
+	/**
+	 * Sets whether every chromosome mutates by its own, inherited rate. See
+	 * Population.setSelfAdaptiveMutation.
+	 * 
+	 * @throws IllegalStateException
+	 *             If a rate control is set, whose mutation rate would be
+	 *             ignored.
+	 */
+	public void setSelfAdaptiveMutation(boolean isSelfAdaptive) {
+		if (isSelfAdaptive && this.rateControl != null) {
+			throw new IllegalStateException("Rate control and self-adaptive mutation cannot be combined");
+		}
+		this.isSelfAdaptive = isSelfAdaptive;
+	}
+
+	/**
+	 * Sets whether every summary carries the diversity of its generation, for
+	 * listeners that read it. It is computed anyway when a termination
+	 * criterion or the rate control needs it.
+	 */
+	public void setDiversityTracking(boolean isDiversityTracked) {
+		this.isDiversityTracked = isDiversityTracked;
+	}
+
+	/**
+	 * Sets the file the run is written to every interval generations and
+	 * when it finishes. Each checkpoint reseeds the random generator from
+	 * itself, so a restored run creates the same generations as one that was
+	 * never stopped.
+	 */
+	public void setCheckpoint(Checkpoint checkpoint, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1: " + interval);
+		}
+		this.checkpoint = checkpoint;
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 * Loads the latest snapshot of the checkpoint, so that the next run goes
+	 * on from there. Termination criteria, the rate control and
+	 * self-adaptive mutation rates start over from the restored generation.
+	 * 
+	 * @return False if there is no snapshot, it could not be read or it is of
+	 *         another cantus firmus or species.
+	 */
+	public boolean restore() {
+		Checkpoint.State state;
+		try {
+			state = this.checkpoint.read(this.cantusFirmus, this.species);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return false;
+		}
+		if (state == null) {
+			return false;
+		}
+		this.rnd = new SplittableRandom(state.seed);
+		List<Chromosome> members = new ArrayList<>();
+		for (int i = 0; i < state.members.length; i++) {
+			Chromosome member = new Chromosome(state.members[i], this.cantusFirmus);
+			member.setFitness(this.species, state.fitness[i]);
+			members.add(member);
+		}
+		this.current = this.createPopulation(members);
+		this.current.setEvaluationCount(state.evaluationCount);
+		this.spare = this.current.copy();
+		this.generationCount = state.generationCount;
+		this.checkpointedGeneration = state.generationCount;
+		this.bestFitnessOfEachGeneration = state.bestFitnessOfEachGeneration;
+		this.bestOfFirstGeneration = new Chromosome(state.bestOfFirstGeneration, this.cantusFirmus);
+		this.terminationReason = state.terminationReason;
+		for (TerminationCriterion criterion : this.terminationCriteria) {
+			criterion.reset();
+		}
+		if (this.rateControl != null) {
+			this.rateControl.reset(this.crossOverRate, this.mutationRate);
+		}
+		this.isRestored = true;
+		return true;
+	}
+
+	/**
+	 * Adds a criterion that can stop the run before the iteration count is
+	 * reached. The run stops at the first criterion that is met.
+	 */
+	public void addTerminationCriterion(TerminationCriterion criterion) {
+		this.terminationCriteria.add(criterion);
+	}
+
+	/**
+	 * @return Why the run stopped, or null if it has not.
+	 */
+	public String getTerminationReason() {
+		return this.terminationReason;
+	}
+
+	/**
+	 * Sets the listener that receives a summary of every generation as soon
+	 * as it is created. See setDiversityTracking for the diversity.
+	 */
+	public void setListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Runs to the end, starting over unless a run was just restored.
+	 */
+	public void run() {
+		if (!this.isRestored) {
+			this.start();
+		}
+		this.isRestored = false;
+		while (!this.isFinished()) {
+			this.step();
+			this.checkpointIfDue();
+		}
+		this.checkpointIfDue();
+	}
+
+	/**
+	 * Creates the first generation.
+	 */
+	void start() {
+		this.isRestored = false;
+		if (this.checkpoint != null) {
+			try {
+				this.checkpoint.reset();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		this.checkpointedGeneration = 0;
+		this.generationCount = 0;
+		this.bestFitnessOfEachGeneration = new ArrayList<>();
+		this.terminationReason = null;
+		for (TerminationCriterion criterion : this.terminationCriteria) {
+			criterion.reset();
 		}
-		return bestFitnessOfPopulations;
+		if (this.rateControl != null) {
+			this.rateControl.reset(this.crossOverRate, this.mutationRate);
+		}
+
+		AbstractPopulation<?> initial = this.createPopulation(null);
+		this.bestOfFirstGeneration = this.advance(initial).getBestChromosome();
+		// The next generation is written over a copy, for which no random
+		// numbers are drawn, so a restored run goes on as one that was never
+		// stopped.
+		this.spare = initial.copy();
+	}
+
+	/**
+	 * @return A population of the given members, or of random ones if
+	 *         members is null, stored as set by setPackedStorage.
+	 */
+	private AbstractPopulation<?> createPopulation(List<Chromosome> members) {
+		if (this.isPacked) {
+			return this.configure(members == null
+					? new PackedPopulation(this.populationSize, this.species, this.cantusFirmus, this.crossOverRate,
+							this.mutationRate, this.rnd)
+					: new PackedPopulation(this.species, this.cantusFirmus, this.crossOverRate, this.mutationRate,
+							this.rnd, members));
+		}
+		Population population = members == null
+				? new Population(this.populationSize, this.species, this.cantusFirmus, this.crossOverRate,
+						this.mutationRate, this.rnd)
+				: new Population(this.species, this.cantusFirmus, this.crossOverRate, this.mutationRate, this.rnd,
+						members);
+		population.setFitnessCache(this.fitnessCache);
+		return this.configure(population);
+	}
+
+	private AbstractPopulation<?> configure(AbstractPopulation<?> population) {
+		population.setParallelism(this.parallelism);
+		population.setExecutor(this.executor);
+		population.setEliteCount(this.eliteCount);
+		population.setSelection(this.selection);
+		population.setMetrics(this.metrics);
+		population.setMutationRange(this.mutationRange);
+		population.setSelfAdaptiveMutation(this.isSelfAdaptive);
+		return population;
+	}
+
+	/**
+	 * Writes a checkpoint if one is set and interval generations have passed
+	 * since the last, or the run has finished since.
+	 */
+	void checkpointIfDue() {
+		if (this.checkpoint == null || this.generationCount == this.checkpointedGeneration
+				|| (!this.isFinished() && this.generationCount - this.checkpointedGeneration < this.checkpointInterval)) {
+			return;
+		}
+		// The generator's state cannot be read, so it is replaced by one from
+		// a seed that can.
+		long seed = this.rnd.nextLong();
+		this.rnd = new SplittableRandom(seed);
+		this.current.setRandom(this.rnd);
+
+		Checkpoint.State state = new Checkpoint.State();
+		state.generationCount = this.generationCount;
+		state.seed = seed;
+		this.current.evaluate();
+		state.evaluationCount = this.current.getEvaluationCount();
+		state.bestFitnessOfEachGeneration = this.bestFitnessOfEachGeneration;
+		state.bestOfFirstGeneration = genes(this.bestOfFirstGeneration);
+		state.members = new byte[this.current.size()][];
+		state.fitness = new float[this.current.size()];
+		for (int i = 0; i < state.members.length; i++) {
+			Chromosome member = this.current.getMember(i, AbstractPopulation.SOURCE);
+			state.members[i] = genes(member);
+			state.fitness[i] = member.getFitness(this.species);
+		}
+		state.terminationReason = this.terminationReason;
+		try {
+			this.checkpoint.write(state, this.cantusFirmus, this.species);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		this.checkpointedGeneration = this.generationCount;
+	}
+
+	private static byte[] genes(Chromosome chromosome) {
+		byte[] genes = new byte[chromosome.size()];
+		for (int i = 0; i < genes.length; i++) {
+			genes[i] = (byte) chromosome.getGene(i);
+		}
+		return genes;
+	}
+
+	/**
+	 * Creates the next generation from the current one, reusing the
+	 * chromosomes of the generation before.
+	 */
+	void step() {
+		long start = this.metrics != null ? System.nanoTime() : 0;
+		this.current.createNextGenerationOver(this.spare);
+		AbstractPopulation<?> previous = this.current;
+		this.advance(this.spare);
+		this.spare = previous;
+		if (this.metrics != null) {
+			this.metrics.recordLatency(EngineMetrics.Phase.Generation, System.nanoTime() - start);
+		}
+	}
+
+	private GenerationSummary advance(AbstractPopulation<?> next) {
+		EngineEvents.GenerationEvent event = new EngineEvents.GenerationEvent();
+		event.begin();
+		this.current = next;
+		GenerationSummary summary = next.summarize(this.generationCount++, this.needsDiversity());
+		this.bestFitnessOfEachGeneration.add((double) summary.getBestFitness());
+		if (this.metrics != null) {
+			this.metrics.recordGeneration(summary);
+		}
+		if (event.shouldCommit()) {
+			event.generation = summary.getGeneration();
+			event.bestFitness = summary.getBestFitness();
+			event.meanFitness = summary.getMeanFitness();
+			event.evaluationCount = summary.getEvaluationCount();
+			event.commit();
+		}
+		if (this.listener != null) {
+			this.listener.onGeneration(summary);
+		}
+		if (this.rateControl != null) {
+			this.rateControl.update(summary);
+			next.setRates(this.rateControl.getCrossOverRate(), this.rateControl.getMutationRate());
+		}
+		for (TerminationCriterion criterion : this.terminationCriteria) {
+			String reason = criterion.check(summary);
+			if (reason != null) {
+				this.terminationReason = reason;
+				return summary;
+			}
+		}
+		if (this.generationCount >= this.iterationCount) {
+			this.terminationReason = "Iteration count of " + this.iterationCount + " reached";
+		}
+		return summary;
+	}
+
+	private boolean needsDiversity() {
+		if (this.isDiversityTracked || (this.rateControl != null && this.rateControl.needsDiversity())) {
+			return true;
+		}
+		for (TerminationCriterion criterion : this.terminationCriteria) {
+			if (criterion.needsDiversity()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int getGenerationCount() {
+		return this.generationCount;
+	}
+
+	boolean isFinished() {
+		return this.terminationReason != null;
+	}
+
+	AbstractPopulation<?> getCurrentPopulation() {
+		return this.current;
+	}
+
+	/**
+	 * @return The best chromosome of the current generation.
+	 */
+	public Chromosome getBestChromosome() {
+		return this.current.getBestChromosome();
+	}
+
+	public List<Double> getBestFitnessOfEachGeneration() {
+		return new ArrayList<>(this.bestFitnessOfEachGeneration);
 	}
 
 	public void createLilypondFiles(String directory, String currentDateAndTime, String composer, String title) {
-		Utils.createLilypondFiles(populations.get(0).getBestChromosome(), "Best_Of_First_Generation.ly", directory,
+		Utils.createLilypondFiles(this.bestOfFirstGeneration, "Best_Of_First_Generation.ly", directory,
+				currentDateAndTime, composer, title);
+		Utils.createLilypondFiles(this.current.getBestChromosome(), "Best_Of_Last_Generation.ly", directory,
 				currentDateAndTime, composer, title);
-		Utils.createLilypondFiles(populations.get(iterationCount - 1).getBestChromosome(), "Best_Of_Last_Generation.ly",
-				directory, currentDateAndTime, composer, title);
 
 	}
 
+	/**
+	 * Like createLilypondFiles, but queues the files on renderer.
+	 * 
+	 * @return Completion of the first and last generation's scores.
+	 */
+	public List<Future<Boolean>> createLilypondFiles(String directory, String currentDateAndTime, String composer,
+			String title, LilypondRenderer renderer) {
+		List<Future<Boolean>> scores = new ArrayList<>();
+		scores.add(Utils.createLilypondFiles(this.bestOfFirstGeneration, "Best_Of_First_Generation.ly", directory,
+				currentDateAndTime, composer, title, renderer));
+		scores.add(Utils.createLilypondFiles(this.current.getBestChromosome(), "Best_Of_Last_Generation.ly",
+				directory, currentDateAndTime, composer, title, renderer));
+		return scores;
+	}
+
 }
@@ -0,0 +1,124 @@
+package net.milgar.joox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several genetic algorithms as islands on their own threads. Every
+ * migration interval the islands stop, and copies of the best chromosomes of
+ * each island replace the worst ones of another island.
+ */
+public class IslandModel {
+
+	public enum Topology {
+		// Each island sends its migrants to the next one.
+		Ring,
+		// Each island sends its migrants to a randomly picked other island.
+		Random
+	};
+
+	private GeneticAlgorithm[] islands;
+	private int migrationInterval;
+	private int migrantCount;
+	private Topology topology;
+	private SplittableRandom rnd;
+
+	public IslandModel(GeneticAlgorithm[] islands, int migrationInterval, int migrantCount, Topology topology) {
+		if (migrationInterval < 1) {
+			throw new IllegalArgumentException("Migration interval must be at least 1: " + migrationInterval);
+		}
+		this.islands = islands.clone();
+		this.migrationInterval = migrationInterval;
+		this.migrantCount = migrantCount;
+		this.topology = topology;
+		this.rnd = new SplittableRandom();
+	}
+
+	/**
+	 * Seeds the topology and gives every island its own generator split off
+	 * the seeded one, so that runs with the same seed are identical even
+	 * though islands run on separate threads.
+	 */
+	public void setSeed(long seed) {
+		this.rnd = new SplittableRandom(seed);
+		for (GeneticAlgorithm island : this.islands) {
+			island.setRandom(this.rnd.split());
+		}
+	}
+
+	/**
+	 * Runs every island to its iteration count. Afterwards each island's
+	 * results are read from the island as after GeneticAlgorithm.run().
+	 */
+	public void run() {
+		ExecutorService threads = Executors.newFixedThreadPool(this.islands.length);
+		try {
+			List<Callable<Void>> epochs = new ArrayList<>();
+			for (GeneticAlgorithm island : this.islands) {
+				epochs.add(() -> {
+					if (island.getGenerationCount() == 0) {
+						island.start();
+					}
+					for (int i = 0; i < this.migrationInterval && !island.isFinished(); i++) {
+						island.step();
+					}
+					return null;
+				});
+			}
+			while (!isFinished()) {
+				for (Future<Void> epoch : threads.invokeAll(epochs)) {
+					epoch.get();
+				}
+				if (!isFinished()) {
+					migrate();
+				}
+				for (GeneticAlgorithm island : this.islands) {
+					island.checkpointIfDue();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running islands", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("An island failed", e.getCause());
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+	private boolean isFinished() {
+		for (GeneticAlgorithm island : this.islands) {
+			if (!island.isFinished()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void migrate() {
+		if (this.islands.length < 2) {
+			return;
+		}
+		// Pick every island's migrants before any of them arrive elsewhere.
+		List<List<Chromosome>> migrants = new ArrayList<>();
+		for (GeneticAlgorithm island : this.islands) {
+			migrants.add(island.getCurrentPopulation().getBestChromosomes(this.migrantCount));
+		}
+		for (int i = 0; i < this.islands.length; i++) {
+			int destination;
+			if (this.topology == Topology.Ring) {
+				destination = (i + 1) % this.islands.length;
+			} else {
+				destination = (i + 1 + rnd.nextInt(this.islands.length - 1)) % this.islands.length;
+			}
+			this.islands[destination].getCurrentPopulation().immigrate(migrants.get(i));
+		}
+	}
+
+}
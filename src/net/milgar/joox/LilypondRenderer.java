@@ -0,0 +1,90 @@
+package net.milgar.joox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs lilypond on .ly files in the background, at most a given number at a
+ * time, so composing does not wait for scores to render. The output of each
+ * run goes to a .log file next to the .ly file, and runs that take longer
+ * than the timeout are killed.
+ */
+public class LilypondRenderer implements AutoCloseable {
+	private ExecutorService workers;
+	private long timeout;
+	private TimeUnit unit;
+	private String command = "lilypond";
+
+	public LilypondRenderer(int concurrency, long timeout, TimeUnit unit) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+		}
+		this.workers = Executors.newFixedThreadPool(concurrency);
+		this.timeout = timeout;
+		this.unit = unit;
+	}
+
+	/**
+	 * Sets the program run with the .ly file name as its only argument,
+	 * lilypond by default. A stub script can stand in for it in tests.
+	 */
+	public void setCommand(String command) {
+		this.command = command;
+	}
+
+	/**
+	 * Queues a run of lilypond on a file in directory.
+	 * 
+	 * @return Completes with true if lilypond finished in time and
+	 *         successfully.
+	 */
+	public CompletableFuture<Boolean> render(String lilypondFileName, String directory) {
+		return CompletableFuture.supplyAsync(() -> this.run(lilypondFileName, directory), this.workers);
+	}
+
+	private boolean run(String lilypondFileName, String directory) {
+		File workingDirectory = new File(directory);
+		ProcessBuilder builder = new ProcessBuilder(this.command, lilypondFileName);
+		builder.directory(workingDirectory);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(workingDirectory, lilypondFileName + ".log"));
+		Process process;
+		try {
+			process = builder.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		try {
+			if (!process.waitFor(this.timeout, this.unit)) {
+				System.err.println("lilypond timed out on " + lilypondFileName);
+				process.destroyForcibly();
+				return false;
+			}
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return process.exitValue() == 0;
+	}
+
+	/**
+	 * Waits for the queued runs to finish and stops the workers.
+	 */
+	@Override
+	public void close() {
+		this.workers.shutdown();
+		try {
+			this.workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			this.workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
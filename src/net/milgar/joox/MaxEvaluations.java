@@ -0,0 +1,25 @@
+package net.milgar.joox;
+
+/**
+ * Stops once a number of fitness evaluations has been spent.
+ */
+public class MaxEvaluations implements TerminationCriterion {
+	private long maxEvaluations;
+
+	public MaxEvaluations(long maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public String check(GenerationSummary summary) {
+		if (summary.getEvaluationCount() >= this.maxEvaluations) {
+			return "Evaluation budget of " + this.maxEvaluations + " spent";
+		}
+		return null;
+	}
+
+}
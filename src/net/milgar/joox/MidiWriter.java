@@ -0,0 +1,169 @@
+package net.milgar.joox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes a chromosome and its cantus firmus as a Standard MIDI File, in the
+ * process, without going through LilyPond. The music is the same as in the
+ * LilyPond files: the contrapunctus on the first track and the cantus firmus
+ * on the second, at 160 crotchets per minute.
+ *
+ * A writer keeps no state between files and may be shared between threads.
+ */
+public class MidiWriter {
+
+	// MIDI keys of the notes of Utils.NOTES, g to a''; 0 is the rest.
+	private static final int[] KEYS = { 55, 57, 59, 60, 62, 64, 65, 67, 69, 71, 72, 74, 76, 77, 79, 81, 0 };
+	private static final int REST = 17;
+
+	// Ticks per crotchet.
+	private static final int DIVISION = 96;
+	private static final int MICROSECONDS_PER_CROTCHET = 60000000 / 160;
+	private static final int VELOCITY = 80;
+
+	private int species;
+
+	/**
+	 * @param species
+	 *            1 to 3, sets the note values of the contrapunctus like in the
+	 *            LilyPond files.
+	 */
+	public MidiWriter(int species) {
+		if (species < 1 || species > Utils.SPECIES_DURATION.length) {
+			throw new IllegalArgumentException(
+					"Species must be between 1 and " + Utils.SPECIES_DURATION.length + ": " + species);
+		}
+		this.species = species;
+	}
+
+	/**
+	 * @return A MIDI file named path, or false if it cannot be written.
+	 */
+	public boolean write(Chromosome chromosome, String path) {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			this.write(chromosome, channel);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	public void write(Chromosome chromosome, WritableByteChannel channel) throws IOException {
+		ByteBuffer file = this.encode(chromosome);
+		while (file.hasRemaining()) {
+			channel.write(file);
+		}
+	}
+
+	/**
+	 * @return The MIDI file, ready to be read.
+	 */
+	public ByteBuffer encode(Chromosome chromosome) {
+		List<Integer> cantusFirmus = chromosome.getCantusFirmus();
+		// A note takes at most 14 bytes: two events of 3 bytes, each after a
+		// delta time of at most 4.
+		ByteBuffer file = ByteBuffer.allocate(128 + 14 * (chromosome.size() + cantusFirmus.size()));
+
+		// Header: format 1, a tempo track and a track per voice.
+		file.putInt(0x4d546864).putInt(6);
+		file.putShort((short) 1).putShort((short) 3).putShort((short) DIVISION);
+
+		int start = this.startTrack(file);
+		// Time signature 4/4, and the tempo.
+		file.put((byte) 0).put((byte) 0xff).put((byte) 0x58).put((byte) 4);
+		file.put((byte) 4).put((byte) 2).put((byte) 24).put((byte) 8);
+		file.put((byte) 0).put((byte) 0xff).put((byte) 0x51).put((byte) 3);
+		file.put((byte) (MICROSECONDS_PER_CROTCHET >> 16)).put((byte) (MICROSECONDS_PER_CROTCHET >> 8))
+				.put((byte) MICROSECONDS_PER_CROTCHET);
+		this.endTrack(file, start, 0);
+
+		start = this.startTrack(file);
+		int size = chromosome.size();
+		int ticks = 4 * DIVISION / Utils.SPECIES_DURATION[this.species - 1];
+		int rest = 0;
+		for (int i = 0; i < size - 1; i++) {
+			int key = key(chromosome.getGene(i));
+			// Raise the penultimate note like the LilyPond files do.
+			if (i == size - 2 && Utils.isSharpenedPenultimate(chromosome.getGene(i), chromosome.getGene(i + 1))) {
+				key++;
+			}
+			rest = this.note(file, 0, key, ticks, rest);
+		}
+		// The final note is a semibreve.
+		rest = this.note(file, 0, key(chromosome.getGene(size - 1)), 4 * DIVISION, rest);
+		this.endTrack(file, start, rest);
+
+		start = this.startTrack(file);
+		rest = 0;
+		for (int note : cantusFirmus) {
+			rest = this.note(file, 1, key(note), 4 * DIVISION, rest);
+		}
+		this.endTrack(file, start, rest);
+
+		file.flip();
+		return file;
+	}
+
+	private static int key(int note) {
+		if (note <= 0 || note > REST) {
+			throw new IndexOutOfBoundsException("Not a note: " + note);
+		}
+		return KEYS[note - 1];
+	}
+
+	/**
+	 * Writes a note, or nothing for a rest.
+	 *
+	 * @param rest
+	 *            Ticks of rest since the last event.
+	 * @return Ticks of rest since the last event after this note.
+	 */
+	private int note(ByteBuffer file, int channel, int key, int ticks, int rest) {
+		if (key == 0) {
+			return rest + ticks;
+		}
+		putVariableLength(file, rest);
+		file.put((byte) (0x90 | channel)).put((byte) key).put((byte) VELOCITY);
+		putVariableLength(file, ticks);
+		file.put((byte) (0x80 | channel)).put((byte) key).put((byte) 0);
+		return 0;
+	}
+
+	/**
+	 * @return Position of the track's length, filled in by endTrack.
+	 */
+	private int startTrack(ByteBuffer file) {
+		file.putInt(0x4d54726b);
+		int start = file.position();
+		file.putInt(0);
+		return start;
+	}
+
+	private void endTrack(ByteBuffer file, int start, int rest) {
+		putVariableLength(file, rest);
+		file.put((byte) 0xff).put((byte) 0x2f).put((byte) 0);
+		file.putInt(start, file.position() - start - 4);
+	}
+
+	private static void putVariableLength(ByteBuffer file, int value) {
+		// Seven bits per byte, most significant first, the last without the
+		// continuation bit.
+		int shift = 21;
+		while (shift > 0 && (value >>> shift) == 0) {
+			shift -= 7;
+		}
+		for (; shift > 0; shift -= 7) {
+			file.put((byte) (0x80 | ((value >>> shift) & 0x7f)));
+		}
+		file.put((byte) (value & 0x7f));
+	}
+
+}
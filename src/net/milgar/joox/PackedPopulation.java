@@ -0,0 +1,533 @@
+package net.milgar.joox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A population stored as columns instead of one object per member: the
+ * genomes of all members packed 5 bits per note into one off-heap buffer,
+ * and their fitness in one float array. A member takes a few bytes per
+ * twelve notes instead of several objects, so populations of millions fit
+ * on a normal heap.
+ *
+ * Generations are bred by the same code as those of Population, through
+ * views that use the members of their slots as chromosomes, so both take the
+ * same settings and give the same results from the same seed.
+ */
+public class PackedPopulation extends AbstractPopulation<PackedPopulation> {
+	// Notes are in 1..17, so 5 bits hold one and 12 fit in a word.
+	private static final int BITS_PER_NOTE = 5;
+	private static final int NOTES_PER_WORD = 64 / BITS_PER_NOTE;
+	private static final long NOTE_MASK = (1L << BITS_PER_NOTE) - 1;
+	// Members scored in one call of the fitness kernel.
+	private static final int BATCH_SIZE = 256;
+
+	private int length;
+	private int wordsPerGenome;
+	private LongBuffer genes;
+	// NaN until the member is evaluated.
+	private float[] fitness;
+	// Self-adaptive mutation rates, null until one is set.
+	private float[] mutationRates;
+	// One per chunk.
+	private Chunk[] chunks;
+	// One per role members are asked for in, created on first use.
+	private View[] views = new View[ROLE_COUNT];
+
+	/**
+	 * @param rnd
+	 *            Source of every random choice of this population and the
+	 *            generations created from it. Must only be used by one thread.
+	 */
+	public PackedPopulation(int maxSize, Utils.Species species, List<Integer> cantusFirmus, float crossOverRate,
+			float mutationRate, SplittableRandom rnd) {
+		this(species, cantusFirmus, crossOverRate, mutationRate, rnd, maxSize);
+		for (int slot = 0; slot < maxSize; slot++) {
+			for (int i = 0; i < this.length; i++) {
+				this.setGene(slot, i, rnd.nextInt(17) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Creates a population of the given members, such as ones restored from
+	 * a checkpoint.
+	 */
+	PackedPopulation(Utils.Species species, List<Integer> cantusFirmus, float crossOverRate, float mutationRate,
+			SplittableRandom rnd, List<Chromosome> members) {
+		this(species, cantusFirmus, crossOverRate, mutationRate, rnd, members.size());
+		for (int slot = 0; slot < this.maxSize; slot++) {
+			this.getMember(slot, TARGET).copyFrom(members.get(slot));
+		}
+	}
+
+	/**
+	 * Creates a population of maxSize members that are not set yet.
+	 */
+	private PackedPopulation(Utils.Species species, List<Integer> cantusFirmus, float crossOverRate,
+			float mutationRate, SplittableRandom rnd, int maxSize) {
+		super(maxSize, species, cantusFirmus, crossOverRate, mutationRate, rnd);
+		this.length = cantusFirmus.size();
+		this.wordsPerGenome = (this.length + NOTES_PER_WORD - 1) / NOTES_PER_WORD;
+		long bytes = (long) maxSize * this.wordsPerGenome * Long.BYTES;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Population of " + maxSize + " does not fit in one buffer");
+		}
+		this.genes = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+		this.fitness = new float[maxSize];
+		Arrays.fill(this.fitness, Float.NaN);
+	}
+
+	/**
+	 * @return A new population, of the same settings, holding the next
+	 *         generation.
+	 */
+	public PackedPopulation createNextGeneration() {
+		PackedPopulation newPop = new PackedPopulation(this.maxSize, this.species, this.cantusFirmus,
+				this.crossOverRate, this.mutationRate, this.rnd);
+		this.createNextGeneration(newPop);
+		return newPop;
+	}
+
+	/**
+	 * Writes the next generation over the members of newPop, which must have
+	 * been created with the same settings.
+	 */
+	@Override
+	public void createNextGeneration(PackedPopulation newPop) {
+		if (newPop.length != this.length) {
+			throw new IllegalArgumentException("Next generation needs a separate population of the same size");
+		}
+		super.createNextGeneration(newPop);
+	}
+
+	@Override
+	PackedPopulation copy() {
+		PackedPopulation copy = new PackedPopulation(this.species, this.cantusFirmus, this.crossOverRate,
+				this.mutationRate, this.rnd, this.maxSize);
+		this.copySettingsTo(copy);
+		LongBuffer genes = this.genes.duplicate();
+		genes.clear();
+		copy.genes.put(genes);
+		copy.genes.rewind();
+		copy.fitness = this.fitness.clone();
+		copy.mutationRates = this.mutationRates == null ? null : this.mutationRates.clone();
+		copy.evaluationCount = this.evaluationCount;
+		copy.bestIndex = this.bestIndex;
+		return copy;
+	}
+
+	@Override
+	float[] getFitnessSnapshot() {
+		this.evaluate();
+		return this.fitness;
+	}
+
+	@Override
+	Chromosome getMember(int index) {
+		return new View(index);
+	}
+
+	/**
+	 * @return The view of the role, moved to the member at index.
+	 */
+	@Override
+	Chromosome getMember(int index, int role) {
+		View view = this.views[role];
+		if (view == null) {
+			view = new View(index);
+			this.views[role] = view;
+		}
+		view.slot = index;
+		return view;
+	}
+
+	@Override
+	List<Chromosome> selectBest(int count) {
+		List<Chromosome> best = new ArrayList<>();
+		for (int slot : this.selectTop(count, false)) {
+			best.add(new View(slot));
+		}
+		return best;
+	}
+
+	@Override
+	public List<Chromosome> getBestChromosomes(int count) {
+		List<Chromosome> best = new ArrayList<>();
+		for (int slot : this.selectTop(count, false)) {
+			best.add(new Chromosome(this.getMember(slot, SOURCE)));
+		}
+		return best;
+	}
+
+	@Override
+	public void immigrate(List<Chromosome> immigrants) {
+		List<Integer> worst = this.selectTop(immigrants.size(), true);
+		for (int i = 0; i < worst.size(); i++) {
+			this.getMember(worst.get(i), TARGET).copyFrom(immigrants.get(i));
+		}
+	}
+
+	/**
+	 * Copies a member with its fitness and mutation rate a word at a time.
+	 */
+	private void copyTo(int slot, PackedPopulation target, int targetSlot) {
+		int from = slot * this.wordsPerGenome;
+		int to = targetSlot * this.wordsPerGenome;
+		for (int w = 0; w < this.wordsPerGenome; w++) {
+			target.genes.put(to + w, this.genes.get(from + w));
+		}
+		target.fitness[targetSlot] = this.fitness[slot];
+		if (this.mutationRates != null || target.mutationRates != null) {
+			target.setMutationRate(targetSlot, this.getMutationRate(slot));
+		}
+		target.bestIndex = -1;
+	}
+
+	/**
+	 * @return Slots of the count best members, best first, or of the count
+	 *         worst, worst first.
+	 */
+	private List<Integer> selectTop(int count, boolean isWorst) {
+		this.evaluate();
+		if (count <= 0) {
+			return new ArrayList<>();
+		}
+		Comparator<Integer> byFitness = (a, b) -> Float.compare(this.fitness[a], this.fitness[b]);
+		if (isWorst) {
+			byFitness = byFitness.reversed();
+		}
+		// Holds the best members seen so far, the worst of them at its head.
+		PriorityQueue<Integer> top = new PriorityQueue<>(count + 1, byFitness);
+		for (int slot = 0; slot < this.maxSize; slot++) {
+			top.add(slot);
+			if (top.size() > count) {
+				top.poll();
+			}
+		}
+		List<Integer> result = new ArrayList<>(top);
+		result.sort(byFitness.reversed());
+		return result;
+	}
+
+	private float getMutationRate(int slot) {
+		return this.mutationRates == null ? 0 : this.mutationRates[slot];
+	}
+
+	private void setMutationRate(int slot, float mutationRate) {
+		if (this.mutationRates == null) {
+			if (mutationRate == 0) {
+				return;
+			}
+			this.mutationRates = new float[this.maxSize];
+		}
+		this.mutationRates[slot] = mutationRate;
+	}
+
+	public int getGene(int slot, int index) {
+		long word = this.genes.get(slot * this.wordsPerGenome + index / NOTES_PER_WORD);
+		return (int) ((word >>> (index % NOTES_PER_WORD * BITS_PER_NOTE)) & NOTE_MASK);
+	}
+
+	/**
+	 * Sets a note, marking the member as not evaluated.
+	 */
+	public void setGene(int slot, int index, int gene) {
+		int position = slot * this.wordsPerGenome + index / NOTES_PER_WORD;
+		int shift = index % NOTES_PER_WORD * BITS_PER_NOTE;
+		long word = this.genes.get(position);
+		this.genes.put(position, (word & ~(NOTE_MASK << shift)) | ((long) gene << shift));
+		this.fitness[slot] = Float.NaN;
+		this.bestIndex = -1;
+	}
+
+	/**
+	 * @return Number of members.
+	 */
+	@Override
+	public int size() {
+		return this.maxSize;
+	}
+
+	/**
+	 * @return Fitness of the member, evaluating it if needed.
+	 */
+	public float getFitness(int slot) {
+		if (Float.isNaN(this.fitness[slot])) {
+			this.evaluate();
+		}
+		return this.fitness[slot];
+	}
+
+	/**
+	 * @return A chromosome reading and writing the member in slot. Changes
+	 *         made through either are seen by both.
+	 */
+	public Chromosome getView(int slot) {
+		if (slot < 0 || slot >= this.maxSize) {
+			throw new IndexOutOfBoundsException("No member " + slot + " in a population of " + this.maxSize);
+		}
+		return new View(slot);
+	}
+
+	/**
+	 * @return A view of the best member.
+	 */
+	@Override
+	public Chromosome getBestChromosome() {
+		this.evaluate();
+		return this.getView(this.bestIndex);
+	}
+
+	@Override
+	GenerationSummary summarize(int generation, boolean isDiversityIncluded) {
+		this.evaluate();
+		float bestFitness = this.fitness[this.bestIndex];
+		float worstFitness = bestFitness;
+		double sum = 0;
+		for (float value : this.fitness) {
+			worstFitness = Math.min(worstFitness, value);
+			sum += value;
+		}
+		return new GenerationSummary(generation, bestFitness, (float) (sum / this.maxSize), worstFitness,
+				new Chromosome(this.getView(this.bestIndex)), this.evaluationCount,
+				isDiversityIncluded ? this.getDiversity() : Float.NaN);
+	}
+
+	/**
+	 * @return Share of the notes that differ from the most common note at
+	 *         their position, averaged over the positions, like
+	 *         Population.getDiversity.
+	 */
+	@Override
+	public float getDiversity() {
+		int[] counts = new int[18];
+		long differing = 0;
+		for (int position = 0; position < this.length; position++) {
+			Arrays.fill(counts, 0);
+			int mostCommon = 0;
+			for (int slot = 0; slot < this.maxSize; slot++) {
+				mostCommon = Math.max(mostCommon, ++counts[this.getGene(slot, position)]);
+			}
+			differing += this.maxSize - mostCommon;
+		}
+		return (float) differing / ((long) this.length * this.maxSize);
+	}
+
+	/**
+	 * Scores every member that is not evaluated, in chunks that run on the
+	 * executor when there is more than one.
+	 */
+	@Override
+	public void evaluate() {
+		int chunks = this.chunkCount(this.maxSize);
+		if (this.chunks == null || this.chunks.length < chunks) {
+			this.chunks = new Chunk[chunks];
+			for (int c = 0; c < chunks; c++) {
+				this.chunks[c] = new Chunk(this.cantusFirmus);
+			}
+		}
+		if (chunks <= 1) {
+			this.evaluationCount += this.evaluate(0, this.maxSize, this.chunks[0]);
+		} else {
+			Executor runner = this.executor != null ? this.executor : ForkJoinPool.commonPool();
+			List<CompletableFuture<Integer>> futures = new ArrayList<>();
+			for (int c = 0; c < chunks; c++) {
+				int from = (int) ((long) this.maxSize * c / chunks);
+				int to = (int) ((long) this.maxSize * (c + 1) / chunks);
+				Chunk chunk = this.chunks[c];
+				futures.add(CompletableFuture.supplyAsync(() -> this.evaluate(from, to, chunk), runner));
+			}
+			for (CompletableFuture<Integer> future : futures) {
+				this.evaluationCount += future.join();
+			}
+		}
+		if (this.bestIndex < 0) {
+			int best = 0;
+			for (int i = 1; i < this.maxSize; i++) {
+				if (this.fitness[i] > this.fitness[best]) {
+					best = i;
+				}
+			}
+			this.bestIndex = best;
+		}
+	}
+
+	/**
+	 * @return Number of members that had to be scored.
+	 */
+	private int evaluate(int from, int to, Chunk chunk) {
+		EngineEvents.EvaluationEvent event = new EngineEvents.EvaluationEvent();
+		event.begin();
+		long start = this.metrics != null ? System.nanoTime() : 0;
+		int count = 0;
+		int pending = 0;
+		for (int slot = from; slot < to; slot++) {
+			if (!Float.isNaN(this.fitness[slot])) {
+				continue;
+			}
+			for (int i = 0; i < this.length; i++) {
+				chunk.batch.setGene(pending, i, this.getGene(slot, i));
+			}
+			chunk.slots[pending++] = slot;
+			if (pending == BATCH_SIZE) {
+				count += this.score(chunk, pending);
+				pending = 0;
+			}
+		}
+		count += this.score(chunk, pending);
+		// Chunks with nothing to score are not recorded.
+		if (count == 0) {
+			return 0;
+		}
+		if (this.metrics != null) {
+			this.metrics.recordEvaluation(count, 0, false, System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.memberCount = to - from;
+			event.evaluationCount = count;
+			event.cacheHitCount = 0;
+			event.commit();
+		}
+		return count;
+	}
+
+	private int score(Chunk chunk, int count) {
+		if (count > 0) {
+			chunk.batch.score(count, chunk.scores);
+			for (int k = 0; k < count; k++) {
+				this.fitness[chunk.slots[k]] = chunk.scores[k];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * What one chunk is scored with, reused between generations.
+	 */
+	private static class Chunk {
+		private FitnessBatch batch;
+		// Slot of each genome in the batch, and its score.
+		private int[] slots = new int[BATCH_SIZE];
+		private float[] scores = new float[BATCH_SIZE];
+
+		Chunk(List<Integer> cantusFirmus) {
+			this.batch = new FitnessBatch(cantusFirmus, BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * A chromosome whose genes and fitness are those of a slot.
+	 */
+	private class View extends Chromosome {
+		// Moved to another member when the view is reused.
+		private int slot;
+
+		View(int slot) {
+			super(PackedPopulation.this.cantusFirmus);
+			this.slot = slot;
+		}
+
+		@Override
+		public int getGene(int index) {
+			return PackedPopulation.this.getGene(this.slot, index);
+		}
+
+		@Override
+		void setGene(int index, int gene) {
+			PackedPopulation.this.setGene(this.slot, index, gene);
+		}
+
+		@Override
+		public int size() {
+			return PackedPopulation.this.length;
+		}
+
+		/**
+		 * Marks the member as not evaluated, as crossovers do even when they
+		 * swap no notes.
+		 */
+		@Override
+		public void setDirty(boolean dirty) {
+			if (dirty) {
+				PackedPopulation.this.fitness[this.slot] = Float.NaN;
+				PackedPopulation.this.bestIndex = -1;
+			}
+		}
+
+		@Override
+		public boolean isEvaluated(Utils.Species species) {
+			return species == PackedPopulation.this.species
+					&& !Float.isNaN(PackedPopulation.this.fitness[this.slot]);
+		}
+
+		@Override
+		public float getFitness(Utils.Species species) {
+			this.checkSpecies(species);
+			return PackedPopulation.this.getFitness(this.slot);
+		}
+
+		@Override
+		void setFitness(Utils.Species species, float fitness) {
+			this.checkSpecies(species);
+			PackedPopulation.this.fitness[this.slot] = fitness;
+			PackedPopulation.this.bestIndex = -1;
+		}
+
+		@Override
+		public float getMutationRate() {
+			return PackedPopulation.this.getMutationRate(this.slot);
+		}
+
+		@Override
+		void setMutationRate(float mutationRate) {
+			PackedPopulation.this.setMutationRate(this.slot, mutationRate);
+		}
+
+		@Override
+		public void copyFrom(Chromosome that) {
+			if (that == this) {
+				return;
+			}
+			if (that instanceof View && ((View) that).getPopulation().length == PackedPopulation.this.length) {
+				View view = (View) that;
+				view.getPopulation().copyTo(view.slot, PackedPopulation.this, this.slot);
+				return;
+			}
+			for (int i = 0; i < PackedPopulation.this.length; i++) {
+				this.setGene(i, that.getGene(i));
+			}
+			if (that.isEvaluated(PackedPopulation.this.species)) {
+				this.setFitness(PackedPopulation.this.species, that.getFitness(PackedPopulation.this.species));
+			}
+			this.setMutationRate(that.getMutationRate());
+		}
+
+		private PackedPopulation getPopulation() {
+			return PackedPopulation.this;
+		}
+
+		@Override
+		public void setCantusFirmus(List<Integer> cantusFirmus) {
+			throw new UnsupportedOperationException("Members of a packed population share its cantus firmus");
+		}
+
+		private void checkSpecies(Utils.Species species) {
+			if (species != PackedPopulation.this.species) {
+				throw new IllegalArgumentException("Only the fitness for " + PackedPopulation.this.species
+						+ " is stored, not for " + species);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,397 @@
+package net.milgar.joox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Races genetic algorithm settings against each other on one cantus firmus
+ * by successive halving: every setting gets a few fitness evaluations, the
+ * best 1/eta of them go on with eta times as many, and so on until one is
+ * left, every setting left has finished or the last ones had the
+ * evaluations of a full run. Poor settings are dropped after a small part of
+ * what a full run of each would cost.
+ *
+ * Budgets count evaluations rather than generations, so large populations
+ * get no more work than small ones, and the length of the runs is what is
+ * raced for rather than one of the settings.
+ */
+public class ParameterSweep {
+
+	/**
+	 * One set of the settings App otherwise hard codes, but for the number
+	 * of iterations, which the sweep hands out.
+	 */
+	public static class Configuration {
+		private int populationSize;
+		private float crossOverRate;
+		private float mutationRate;
+
+		public Configuration(int populationSize, float crossOverRate, float mutationRate) {
+			this.populationSize = populationSize;
+			this.crossOverRate = crossOverRate;
+			this.mutationRate = mutationRate;
+		}
+
+		public int getPopulationSize() {
+			return this.populationSize;
+		}
+
+		public float getCrossOverRate() {
+			return this.crossOverRate;
+		}
+
+		public float getMutationRate() {
+			return this.mutationRate;
+		}
+
+		@Override
+		public String toString() {
+			return "population " + this.populationSize + ", crossover " + this.crossOverRate + ", mutation "
+					+ this.mutationRate;
+		}
+	}
+
+	/**
+	 * How far a configuration got in the race.
+	 */
+	public static class Result {
+		private Configuration configuration;
+		private int rung;
+		private int generationCount;
+		private float bestFitness;
+		private long evaluationCount;
+		private String terminationReason;
+
+		public Configuration getConfiguration() {
+			return this.configuration;
+		}
+
+		/**
+		 * @return Rung the configuration was last run at, from 0.
+		 */
+		public int getRung() {
+			return this.rung;
+		}
+
+		/**
+		 * @return Generations of the longest of its runs.
+		 */
+		public int getGenerationCount() {
+			return this.generationCount;
+		}
+
+		/**
+		 * @return Best fitness reached, averaged over its runs.
+		 */
+		public float getBestFitness() {
+			return this.bestFitness;
+		}
+
+		/**
+		 * @return Fitness evaluations of all its runs together.
+		 */
+		public long getEvaluationCount() {
+			return this.evaluationCount;
+		}
+
+		/**
+		 * @return Why its first run stopped, or null if its budget ran out
+		 *         first.
+		 */
+		public String getTerminationReason() {
+			return this.terminationReason;
+		}
+
+		@Override
+		public String toString() {
+			return this.configuration + ": best " + this.bestFitness + " after " + this.generationCount
+					+ " generations, " + this.evaluationCount + " evaluations, rung " + this.rung;
+		}
+	}
+
+	// Higher fitness first; at equal fitness, the cheaper configuration.
+	private static final Comparator<Result> RANKING = Comparator.comparingDouble((Result r) -> -r.bestFitness)
+			.thenComparingLong(r -> r.evaluationCount);
+
+	private List<Integer> cantusFirmus;
+	private Utils.Species species;
+	private SplittableRandom rnd;
+	private long maxEvaluations;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	// 0 to start at the budget that gives the last one left maxEvaluations.
+	private long minEvaluations;
+	private int eta = 3;
+	private int repeats = 1;
+	private GenerationListener listener;
+
+	/**
+	 * @param maxEvaluations
+	 *            Fitness evaluations of a full run, the most any run gets.
+	 */
+	public ParameterSweep(List<Integer> cantusFirmus, Utils.Species species, long maxEvaluations) {
+		if (maxEvaluations < 1) {
+			throw new IllegalArgumentException("Maximum evaluations must be at least 1: " + maxEvaluations);
+		}
+		this.cantusFirmus = new ArrayList<>(cantusFirmus);
+		this.species = species;
+		this.maxEvaluations = maxEvaluations;
+		this.rnd = new SplittableRandom();
+	}
+
+	/**
+	 * Makes sweeps reproducible: every run gets its own generator split off
+	 * the seeded one, in the order the configurations are given.
+	 */
+	public void setSeed(long seed) {
+		this.rnd = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Sets how many runs go on at the same time.
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1: " + threadCount);
+		}
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Sets the fitness evaluations every configuration gets at the first
+	 * rung. By default they are chosen so that the last configuration left
+	 * gets maxEvaluations.
+	 */
+	public void setMinEvaluations(long minEvaluations) {
+		if (minEvaluations < 1) {
+			throw new IllegalArgumentException("Minimum evaluations must be at least 1: " + minEvaluations);
+		}
+		this.minEvaluations = minEvaluations;
+	}
+
+	/**
+	 * Sets by how much each rung cuts the configurations and multiplies the
+	 * evaluations of the ones left.
+	 */
+	public void setEta(int eta) {
+		if (eta < 2) {
+			throw new IllegalArgumentException("Eta must be at least 2: " + eta);
+		}
+		this.eta = eta;
+	}
+
+	/**
+	 * Sets how many runs with different seeds each configuration is scored
+	 * on. More runs cost more but drop fewer good configurations by bad luck.
+	 */
+	public void setRepeats(int repeats) {
+		if (repeats < 1) {
+			throw new IllegalArgumentException("Repeats must be at least 1: " + repeats);
+		}
+		this.repeats = repeats;
+	}
+
+	/**
+	 * Sets the listener every run reports its generations to. It is called
+	 * from several threads at once.
+	 */
+	public void setListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return Every combination of the given settings.
+	 */
+	public static List<Configuration> grid(int[] populationSizes, float[] crossOverRates, float[] mutationRates) {
+		List<Configuration> configurations = new ArrayList<>();
+		for (int populationSize : populationSizes) {
+			for (float crossOverRate : crossOverRates) {
+				for (float mutationRate : mutationRates) {
+					configurations.add(new Configuration(populationSize, crossOverRate, mutationRate));
+				}
+			}
+		}
+		return configurations;
+	}
+
+	/**
+	 * @return count configurations drawn uniformly from the given ranges,
+	 *         both ends included. Population sizes are drawn on a log scale.
+	 */
+	public static List<Configuration> sample(int count, int minPopulationSize, int maxPopulationSize,
+			float minCrossOverRate, float maxCrossOverRate, float minMutationRate, float maxMutationRate,
+			SplittableRandom rnd) {
+		List<Configuration> configurations = new ArrayList<>();
+		double logMin = Math.log(minPopulationSize);
+		double logMax = Math.log(maxPopulationSize);
+		for (int i = 0; i < count; i++) {
+			int populationSize = (int) Math.round(Math.exp(logMin + rnd.nextDouble() * (logMax - logMin)));
+			float crossOverRate = minCrossOverRate + (float) rnd.nextDouble() * (maxCrossOverRate - minCrossOverRate);
+			float mutationRate = minMutationRate + (float) rnd.nextDouble() * (maxMutationRate - minMutationRate);
+			configurations.add(new Configuration(populationSize, crossOverRate, mutationRate));
+		}
+		return configurations;
+	}
+
+	/**
+	 * A configuration and its runs, kept alive between rungs.
+	 */
+	private class Trial {
+		private Result result = new Result();
+		private GeneticAlgorithm[] runs;
+
+		Trial(Configuration configuration) {
+			this.result.configuration = configuration;
+			this.runs = new GeneticAlgorithm[repeats];
+			// Every generation but a converged one costs an evaluation at
+			// least, so runs stop at their budget before they get this far.
+			int iterationCount = (int) Math.min(maxEvaluations, Integer.MAX_VALUE);
+			for (int i = 0; i < this.runs.length; i++) {
+				GeneticAlgorithm run = new GeneticAlgorithm(configuration.populationSize, iterationCount,
+						cantusFirmus, species, configuration.crossOverRate, configuration.mutationRate);
+				run.setRandom(rnd.split());
+				run.setListener(listener);
+				run.addTerminationCriterion(new TargetFitness());
+				this.runs[i] = run;
+			}
+		}
+
+		/**
+		 * Runs every run until it has done the given fitness evaluations, or
+		 * finishes, and scores the configuration.
+		 */
+		void advance(int rung, long evaluations) {
+			float bestFitness = 0;
+			long evaluationCount = 0;
+			int generationCount = 0;
+			for (GeneticAlgorithm run : this.runs) {
+				if (run.getGenerationCount() == 0) {
+					run.start();
+				}
+				while (run.getCurrentPopulation().getEvaluationCount() < evaluations && !run.isFinished()) {
+					run.step();
+				}
+				bestFitness += (float) Collections.max(run.getBestFitnessOfEachGeneration()).doubleValue();
+				evaluationCount += run.getCurrentPopulation().getEvaluationCount();
+				generationCount = Math.max(generationCount, run.getGenerationCount());
+			}
+			this.result.rung = rung;
+			this.result.bestFitness = bestFitness / this.runs.length;
+			this.result.evaluationCount = evaluationCount;
+			this.result.generationCount = generationCount;
+			this.result.terminationReason = this.runs[0].getTerminationReason();
+		}
+
+		boolean isFinished() {
+			for (GeneticAlgorithm run : this.runs) {
+				if (!run.isFinished()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Races the configurations.
+	 *
+	 * @return Every configuration, the ones that got furthest first and,
+	 *         within a rung, the best first.
+	 */
+	public List<Result> run(List<Configuration> configurations) {
+		List<Trial> alive = new ArrayList<>();
+		for (Configuration configuration : configurations) {
+			alive.add(new Trial(configuration));
+		}
+		// Dropped configurations, the ones dropped last first.
+		List<Result> dropped = new ArrayList<>();
+		ExecutorService threads = Executors.newFixedThreadPool(this.threadCount);
+		try {
+			long evaluations = this.minEvaluations > 0 ? this.minEvaluations : this.firstBudget(alive.size());
+			for (int rung = 0; !alive.isEmpty(); rung++) {
+				long budget = Math.min(evaluations, this.maxEvaluations);
+				int currentRung = rung;
+				List<Callable<Void>> rounds = new ArrayList<>();
+				for (Trial trial : alive) {
+					rounds.add(() -> {
+						trial.advance(currentRung, budget);
+						return null;
+					});
+				}
+				for (Future<Void> round : threads.invokeAll(rounds)) {
+					round.get();
+				}
+				alive.sort(Comparator.comparing((Trial t) -> t.result, RANKING));
+
+				boolean allFinished = true;
+				for (Trial trial : alive) {
+					allFinished &= trial.isFinished();
+				}
+				if (alive.size() == 1 || allFinished || budget == this.maxEvaluations) {
+					break;
+				}
+				int survivors = Math.max(1, alive.size() / this.eta);
+				List<Result> out = new ArrayList<>();
+				for (Trial trial : alive.subList(survivors, alive.size())) {
+					out.add(trial.result);
+				}
+				dropped.addAll(0, out);
+				alive = new ArrayList<>(alive.subList(0, survivors));
+				evaluations = budget > this.maxEvaluations / this.eta ? this.maxEvaluations : budget * this.eta;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while sweeping", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A run of the sweep failed", e.getCause());
+		} finally {
+			threads.shutdown();
+		}
+		List<Result> ranking = new ArrayList<>();
+		for (Trial trial : alive) {
+			ranking.add(trial.result);
+		}
+		ranking.addAll(dropped);
+		return ranking;
+	}
+
+	/**
+	 * @return Evaluations of the first rung for count configurations, such
+	 *         that the one left after the last cut gets maxEvaluations.
+	 */
+	private long firstBudget(int count) {
+		long budget = this.maxEvaluations;
+		while (count > 1 && budget > 1) {
+			count = Math.max(1, count / this.eta);
+			budget = Math.max(1, budget / this.eta);
+		}
+		return budget;
+	}
+
+	/**
+	 * Writes the results as a tab separated table, one configuration per
+	 * line in the given order.
+	 */
+	public static void writeTable(List<Result> results, Writer out) throws IOException {
+		out.write("rank\tpopulation\tcrossover\tmutation\trung\tgenerations\tbest\tevaluations\n");
+		int rank = 1;
+		for (Result result : results) {
+			Configuration configuration = result.configuration;
+			out.write(String.format(Locale.ROOT, "%d\t%d\t%.3f\t%.3f\t%d\t%d\t%.2f\t%d%n", rank++,
+					configuration.populationSize, configuration.crossOverRate, configuration.mutationRate,
+					result.rung, result.generationCount, result.bestFitness, result.evaluationCount));
+		}
+		out.flush();
+	}
+
+}
@@ -1,78 +1,316 @@
 package net.milgar.joox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-public class Population {
-	private Utils.Species species;
+public class Population extends AbstractPopulation<Population> {
 	private List<Chromosome> members;
-	private Random rnd;
-	private int maxSize;
-	private float crossOverRate;
-	private float mutationRate;
-	private List<Integer> cantusFirmus;
+	// Reused between generations: fitness of the members.
+	private float[] fitnessSnapshot;
+	// Looked up before scoring a member, when set.
+	private FitnessCache fitnessCache;
 
 	private boolean isSorted;
+	private Comparator<Chromosome> byFitness = new Comparator<Chromosome>() {
+		@Override
+		public int compare(Chromosome o1, Chromosome o2) {
+			return o1.compareTo(o2, species);
+		}
+	};
 
 	public Population(int maxSize, Utils.Species species, List<Integer> cantusFirmus, float crossOverRate,
 			float mutationRate) {
-		this.maxSize = maxSize;
-		this.species = species;
-		this.crossOverRate = crossOverRate;
-		this.mutationRate = mutationRate;
-		this.cantusFirmus = new ArrayList<>(cantusFirmus);
+		this(maxSize, species, cantusFirmus, crossOverRate, mutationRate, new SplittableRandom());
+	}
+
+	/**
+	 * @param rnd
+	 *            Source of every random choice of this population and the
+	 *            generations created from it. Must only be used by one thread.
+	 */
+	public Population(int maxSize, Utils.Species species, List<Integer> cantusFirmus, float crossOverRate,
+			float mutationRate, SplittableRandom rnd) {
+		super(maxSize, species, cantusFirmus, crossOverRate, mutationRate, rnd);
 		this.members = new ArrayList<>();
-		this.rnd = new Random();
 		for (int i = 0; i < maxSize; i++) {
-			this.members.add(new Chromosome(cantusFirmus));
+			this.members.add(new Chromosome(cantusFirmus, rnd));
 		}
 
 	}
 
+	/**
+	 * Creates a population of the given members, such as ones restored from
+	 * a checkpoint.
+	 */
+	Population(Utils.Species species, List<Integer> cantusFirmus, float crossOverRate, float mutationRate,
+			SplittableRandom rnd, List<Chromosome> members) {
+		super(members.size(), species, cantusFirmus, crossOverRate, mutationRate, rnd);
+		this.members = new ArrayList<>(members);
+	}
+
+	/**
+	 * @return A new population holding the next generation.
+	 */
 	public Population createNextGeneration() {
-		Population newPop =
-				new Population(this.maxSize, this.species, this.cantusFirmus, this.crossOverRate, this.mutationRate);
-		while (newPop.members.size() < ((float) maxSize) * this.crossOverRate) {
-			Chromosome[] parrentChoromosmes = Utils.tournementSelection(newPop.members, Utils.Species.First);
-
-			Chromosome childFirst = new Chromosome(parrentChoromosmes[0]);
-			Chromosome childSecond = new Chromosome(parrentChoromosmes[1]);
-			Chromosome.crossOver(childFirst, childSecond);
-			newPop.members.add(childFirst);
-			newPop.members.add(childSecond);
-		}
-		newPop.members.add(new Chromosome(this.getBestChromosome()));
-		for (int k = newPop.members.size(); k < maxSize; k++) {
-			int index = rnd.nextInt(maxSize);
-			Chromosome chromosome = new Chromosome(this.members.get(index));
-			newPop.members.add(chromosome);
-		}
-		for (int i = 0; i < ((float) maxSize) * this.mutationRate; i++) {
-			int index = rnd.nextInt(maxSize);
-			newPop.members.get(index).mutate();
-		}
+		Population newPop = new Population(this.maxSize, this.species, this.cantusFirmus, this.crossOverRate,
+				this.mutationRate, this.rnd);
+		this.createNextGeneration(newPop);
 		return newPop;
 	}
 
+	@Override
+	void copySettingsTo(Population newPop) {
+		super.copySettingsTo(newPop);
+		newPop.fitnessCache = this.fitnessCache;
+		newPop.isSorted = false;
+	}
+
+	@Override
+	Population copy() {
+		List<Chromosome> copies = new ArrayList<>(this.members.size());
+		for (Chromosome member : this.members) {
+			copies.add(new Chromosome(member));
+		}
+		Population copy = new Population(this.species, this.cantusFirmus, this.crossOverRate, this.mutationRate,
+				this.rnd, copies);
+		this.copySettingsTo(copy);
+		copy.evaluationCount = this.evaluationCount;
+		copy.bestIndex = this.bestIndex;
+		return copy;
+	}
+
+	@Override
+	float[] getFitnessSnapshot() {
+		if (this.fitnessSnapshot == null) {
+			this.fitnessSnapshot = new float[this.members.size()];
+		}
+		for (int i = 0; i < this.fitnessSnapshot.length; i++) {
+			this.fitnessSnapshot[i] = this.members.get(i).getFitness(this.species);
+		}
+		return this.fitnessSnapshot;
+	}
+
+	/**
+	 * @return The best member, found while evaluating rather than by sorting.
+	 */
+	@Override
 	public Chromosome getBestChromosome() {
-		if (!this.isSorted) {
-			this.sort();
+		this.evaluate();
+		return this.members.get(this.bestIndex);
+	}
+
+	@Override
+	GenerationSummary summarize(int generation, boolean isDiversityIncluded) {
+		this.evaluate();
+		Chromosome best = this.members.get(0);
+		float bestFitness = best.getFitness(this.species);
+		float worstFitness = bestFitness;
+		double sum = 0;
+		for (Chromosome member : this.members) {
+			float fitness = member.getFitness(this.species);
+			if (fitness > bestFitness) {
+				best = member;
+				bestFitness = fitness;
+			}
+			if (fitness < worstFitness) {
+				worstFitness = fitness;
+			}
+			sum += fitness;
+		}
+		return new GenerationSummary(generation, bestFitness, (float) (sum / this.members.size()), worstFitness,
+				new Chromosome(best), this.evaluationCount,
+				isDiversityIncluded ? this.getDiversity() : Float.NaN);
+	}
+
+	/**
+	 * @return Share of the notes that differ from the most common note at
+	 *         their position, averaged over the positions. 0 when all
+	 *         members are equal.
+	 */
+	@Override
+	public float getDiversity() {
+		int length = this.cantusFirmus.size();
+		int[] counts = new int[18];
+		long differing = 0;
+		for (int position = 0; position < length; position++) {
+			Arrays.fill(counts, 0);
+			int mostCommon = 0;
+			for (Chromosome member : this.members) {
+				mostCommon = Math.max(mostCommon, ++counts[member.getGene(position)]);
+			}
+			differing += this.members.size() - mostCommon;
+		}
+		return (float) differing / ((long) length * this.members.size());
+	}
+
+	@Override
+	Chromosome getMember(int index) {
+		return this.members.get(index);
+	}
+
+	@Override
+	int size() {
+		return this.members.size();
+	}
+
+	@Override
+	public List<Chromosome> getBestChromosomes(int count) {
+		List<Chromosome> best = new ArrayList<>();
+		for (Chromosome member : this.selectTop(count, this.byFitness)) {
+			best.add(new Chromosome(member));
+		}
+		return best;
+	}
+
+	@Override
+	List<Chromosome> selectBest(int count) {
+		return this.selectTop(count, this.byFitness);
+	}
+
+	@Override
+	public void immigrate(List<Chromosome> immigrants) {
+		List<Chromosome> worst = this.selectTop(immigrants.size(), this.byFitness.reversed());
+		for (int i = 0; i < worst.size(); i++) {
+			worst.get(i).copyFrom(immigrants.get(i));
+		}
+		this.isSorted = false;
+		this.bestIndex = -1;
+	}
+
+	/**
+	 * @return The count greatest members in the given order, greatest first.
+	 *         Costs O(n log count) instead of a full sort.
+	 */
+	private List<Chromosome> selectTop(int count, Comparator<Chromosome> order) {
+		this.evaluate();
+		if (count <= 0) {
+			return new ArrayList<>();
+		}
+		// Holds the greatest members seen so far, the least of them at its head.
+		PriorityQueue<Chromosome> top = new PriorityQueue<>(count + 1, order);
+		for (Chromosome member : this.members) {
+			top.add(member);
+			if (top.size() > count) {
+				top.poll();
+			}
+		}
+		List<Chromosome> result = new ArrayList<>(top);
+		result.sort(order.reversed());
+		return result;
+	}
+
+	/**
+	 * Sets the cache members are looked up in before they are scored.
+	 */
+	public void setFitnessCache(FitnessCache fitnessCache) {
+		this.fitnessCache = fitnessCache;
+	}
+
+	/**
+	 * Scores every member whose fitness is not up to date, so that selection
+	 * and sorting afterwards only read cached values. Members are split into
+	 * chunks that run on the executor when there is more than one.
+	 */
+	@Override
+	public void evaluate() {
+		int size = this.members.size();
+		int chunks = this.chunkCount(size);
+		// Most calls, from selection, summaries and elitism, find every
+		// member scored already.
+		if (this.firstUnevaluated(0, size) == size) {
+			chunks = 0;
+		}
+		if (chunks == 1) {
+			this.evaluationCount += evaluate(0, size);
+		} else if (chunks > 1) {
+			Executor runner = this.executor != null ? this.executor : ForkJoinPool.commonPool();
+			List<CompletableFuture<Integer>> futures = new ArrayList<>();
+			for (int c = 0; c < chunks; c++) {
+				int from = (int) ((long) size * c / chunks);
+				int to = (int) ((long) size * (c + 1) / chunks);
+				futures.add(CompletableFuture.supplyAsync(() -> evaluate(from, to), runner));
+			}
+			for (CompletableFuture<Integer> future : futures) {
+				this.evaluationCount += future.join();
+			}
+		}
+		if (this.bestIndex < 0) {
+			int best = 0;
+			for (int i = 1; i < size; i++) {
+				if (this.members.get(i).getFitness(this.species) > this.members.get(best).getFitness(this.species)) {
+					best = i;
+				}
+			}
+			this.bestIndex = best;
+		}
+	}
+
+	/**
+	 * @return Index of the first member from on that is not scored, to if
+	 *         there is none before it.
+	 */
+	private int firstUnevaluated(int from, int to) {
+		int i = from;
+		while (i < to && this.members.get(i).isEvaluated(this.species)) {
+			i++;
 		}
-		return this.members.get(this.members.size() - 1);
+		return i;
+	}
+
+	/**
+	 * @return Number of members that had to be scored.
+	 */
+	private int evaluate(int from, int to) {
+		int first = this.firstUnevaluated(from, to);
+		// Chunks with nothing to score are neither timed nor recorded.
+		if (first == to) {
+			return 0;
+		}
+		EngineEvents.EvaluationEvent event = new EngineEvents.EvaluationEvent();
+		event.begin();
+		long start = this.metrics != null ? System.nanoTime() : 0;
+		int count = 0;
+		int hits = 0;
+		for (int i = first; i < to; i++) {
+			Chromosome member = this.members.get(i);
+			if (member.isEvaluated(this.species)) {
+				continue;
+			}
+			if (this.fitnessCache == null) {
+				member.getFitness(this.species);
+				count++;
+			} else if (!this.fitnessCache.evaluate(member, this.species)) {
+				count++;
+			} else {
+				hits++;
+			}
+		}
+		if (this.metrics != null) {
+			this.metrics.recordEvaluation(count, hits, this.fitnessCache != null, System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.memberCount = to - from;
+			event.evaluationCount = count;
+			event.cacheHitCount = hits;
+			event.commit();
+		}
+		return count;
 	}
 
 	public void sort() {
 		if (!this.isSorted) {
-			Collections.sort(this.members, new Comparator<Chromosome>() {
-				@Override
-				public int compare(Chromosome o1, Chromosome o2) {
-					return o1.compareTo(o2, species);
-				}
-			});
+			this.evaluate();
+			Collections.sort(this.members, this.byFitness);
 			this.isSorted = true;
+			this.bestIndex = this.members.size() - 1;
 		}
 	}
 }
@@ -0,0 +1,82 @@
+package net.milgar.joox;
+
+/**
+ * Mutates more while the best fitness stands still and less once it
+ * improves, in the spirit of the one-fifth success rule of evolution
+ * strategies. Crossover is left at its initial rate unless a range is set
+ * for it.
+ */
+public class ProgressRateControl implements RateControl {
+	private float factor;
+	private float minMutationRate;
+	private float maxMutationRate;
+	private float crossOverRate;
+	private float mutationRate;
+	private float bestFitness;
+	private boolean isCrossOverAdapted;
+	private float minCrossOverRate;
+	private float maxCrossOverRate;
+
+	/**
+	 * @param factor
+	 *            The mutation rate is multiplied by it after every generation
+	 *            without improvement and divided by it after every one with.
+	 */
+	public ProgressRateControl(float factor, float minMutationRate, float maxMutationRate) {
+		if (factor <= 1 || minMutationRate > maxMutationRate) {
+			throw new IllegalArgumentException("Needs a factor above 1 and min <= max: " + factor + ", "
+					+ minMutationRate + ", " + maxMutationRate);
+		}
+		this.factor = factor;
+		this.minMutationRate = minMutationRate;
+		this.maxMutationRate = maxMutationRate;
+	}
+
+	/**
+	 * Adapts the crossover rate too, opposite to the mutation rate: it is
+	 * divided by the factor after every generation without improvement and
+	 * multiplied by it after every one with, so a stalled run relies less on
+	 * recombining members that have become alike.
+	 */
+	public void setCrossOverRange(float minCrossOverRate, float maxCrossOverRate) {
+		if (minCrossOverRate < 0 || minCrossOverRate > maxCrossOverRate || maxCrossOverRate > 1) {
+			throw new IllegalArgumentException("Needs 0 <= min <= max <= 1: " + minCrossOverRate + ", "
+					+ maxCrossOverRate);
+		}
+		this.isCrossOverAdapted = true;
+		this.minCrossOverRate = minCrossOverRate;
+		this.maxCrossOverRate = maxCrossOverRate;
+	}
+
+	@Override
+	public void reset(float crossOverRate, float mutationRate) {
+		this.crossOverRate = crossOverRate;
+		this.mutationRate = mutationRate;
+		this.bestFitness = Float.NEGATIVE_INFINITY;
+	}
+
+	@Override
+	public void update(GenerationSummary summary) {
+		boolean isImproved = summary.getBestFitness() > this.bestFitness;
+		if (isImproved) {
+			this.bestFitness = summary.getBestFitness();
+		}
+		float rate = isImproved ? this.mutationRate / this.factor : this.mutationRate * this.factor;
+		this.mutationRate = Math.min(this.maxMutationRate, Math.max(this.minMutationRate, rate));
+		if (this.isCrossOverAdapted) {
+			float crossOverRate = isImproved ? this.crossOverRate * this.factor : this.crossOverRate / this.factor;
+			this.crossOverRate = Math.min(this.maxCrossOverRate, Math.max(this.minCrossOverRate, crossOverRate));
+		}
+	}
+
+	@Override
+	public float getCrossOverRate() {
+		return this.crossOverRate;
+	}
+
+	@Override
+	public float getMutationRate() {
+		return this.mutationRate;
+	}
+
+}
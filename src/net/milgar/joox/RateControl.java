@@ -0,0 +1,33 @@
+package net.milgar.joox;
+
+/**
+ * Adjusts the crossover and mutation rates of a genetic algorithm after each
+ * generation. The rates are those the next generation is bred with.
+ */
+public interface RateControl {
+
+	/**
+	 * Called before the first generation of a run with the rates the
+	 * algorithm was created with, so that state from an earlier run can be
+	 * dropped.
+	 */
+	void reset(float crossOverRate, float mutationRate);
+
+	/**
+	 * Called with every generation as soon as it is created.
+	 */
+	void update(GenerationSummary summary);
+
+	float getCrossOverRate();
+
+	float getMutationRate();
+
+	/**
+	 * @return Whether update reads the diversity of the summary, which is
+	 *         only computed when asked for.
+	 */
+	default boolean needsDiversity() {
+		return false;
+	}
+
+}
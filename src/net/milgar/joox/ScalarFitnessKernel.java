@@ -0,0 +1,63 @@
+package net.milgar.joox;
+
+/**
+ * Runs the body rules one genome at a time, for JVMs without the Vector API
+ * and for the genomes left over by VectorFitnessKernel.
+ */
+class ScalarFitnessKernel implements FitnessKernel {
+
+	@Override
+	public void tally(int[] notes, int stride, int count, int[] cantusFirmus, int[] counters) {
+		tally(notes, stride, 0, count, cantusFirmus, counters);
+	}
+
+	/**
+	 * Like tally, for genomes from up to to.
+	 */
+	static void tally(int[] notes, int stride, int from, int to, int[] cantusFirmus, int[] counters) {
+		int length = cantusFirmus.length;
+		for (int g = from; g < to; g++) {
+			int parallelFifths = 0;
+			int repeats = 0;
+			int thirds = 0;
+			int sixths = 0;
+			int parallelMotion = 0;
+			int jumpContour = 0;
+			// The pair at 0 compares the first note against the last one.
+			for (int i = 0; i < length - 1; i++) {
+				int last = i == 0 ? length - 1 : i - 1;
+				int lastNote = notes[last * stride + g];
+				int note = notes[i * stride + g];
+				int lastInterval = lastNote - cantusFirmus[last];
+				int interval = note - cantusFirmus[i];
+				if ((interval == 4 || interval == 7) && (lastInterval == 4 || lastInterval == 7)) {
+					parallelFifths++;
+				}
+				if (note == lastNote) {
+					repeats++;
+				}
+				if (interval == 2 && lastInterval == 2) {
+					thirds++;
+				}
+				if (interval == 4 && lastInterval == 4) {
+					sixths++;
+				}
+				if ((lastNote < note && cantusFirmus[last] < cantusFirmus[i])
+						|| (lastNote > note && cantusFirmus[last] > cantusFirmus[i])) {
+					parallelMotion++;
+				}
+				int leap = Math.abs(note - lastNote);
+				if (leap > 2) {
+					jumpContour += leap - 2;
+				}
+			}
+			counters[PARALLEL_FIFTHS * stride + g] = parallelFifths;
+			counters[REPEATS * stride + g] = repeats;
+			counters[THIRDS * stride + g] = thirds;
+			counters[SIXTHS * stride + g] = sixths;
+			counters[PARALLEL_MOTION * stride + g] = parallelMotion;
+			counters[JUMP_CONTOUR * stride + g] = jumpContour;
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package net.milgar.joox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A text template parsed once into literal and placeholder segments, so that
+ * rendering only appends to a StringBuilder instead of searching and copying
+ * the whole text for every placeholder.
+ */
+public class ScoreTemplate {
+
+	/**
+	 * Appends the value of a placeholder.
+	 */
+	public interface Values {
+		/**
+		 * @param placeholder
+		 *            Index of the placeholder in the names the template was
+		 *            parsed with.
+		 */
+		void append(int placeholder, StringBuilder out);
+	}
+
+	// literals[i] comes before placeholders[i]; the last literal ends the text.
+	private final String[] literals;
+	private final int[] placeholders;
+	private final int length;
+
+	/**
+	 * @param names
+	 *            Placeholders to look for, e.g. "$title". Where one name is
+	 *            the start of another, the longer one wins.
+	 */
+	public ScoreTemplate(String text, String... names) {
+		List<String> literals = new ArrayList<>();
+		List<Integer> placeholders = new ArrayList<>();
+		int start = 0;
+		int from = 0;
+		int index;
+		while ((index = text.indexOf('$', from)) >= 0) {
+			int match = -1;
+			for (int i = 0; i < names.length; i++) {
+				if (text.startsWith(names[i], index) && (match < 0 || names[i].length() > names[match].length())) {
+					match = i;
+				}
+			}
+			if (match < 0) {
+				from = index + 1;
+				continue;
+			}
+			literals.add(text.substring(start, index));
+			placeholders.add(match);
+			start = index + names[match].length();
+			from = start;
+		}
+		literals.add(text.substring(start));
+
+		this.literals = literals.toArray(new String[0]);
+		this.placeholders = new int[placeholders.size()];
+		for (int i = 0; i < this.placeholders.length; i++) {
+			this.placeholders[i] = placeholders.get(i);
+		}
+		this.length = text.length();
+	}
+
+	/**
+	 * @return The template in the named resource next to this class, with
+	 *         every line ended by "\n", or null if it cannot be read.
+	 */
+	public static ScoreTemplate load(String resource, String... names) {
+		InputStream is = ScoreTemplate.class.getResourceAsStream(resource);
+		if (is == null) {
+			System.err.println("Template not found: " + resource);
+			return null;
+		}
+		StringBuilder text = new StringBuilder();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(is))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				text.append(line).append('\n');
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return new ScoreTemplate(text.toString(), names);
+	}
+
+	/**
+	 * Appends the template to out, filling in each placeholder from values.
+	 */
+	public void render(StringBuilder out, Values values) {
+		out.ensureCapacity(out.length() + this.length);
+		for (int i = 0; i < this.placeholders.length; i++) {
+			out.append(this.literals[i]);
+			values.append(this.placeholders[i], out);
+		}
+		out.append(this.literals[this.placeholders.length]);
+	}
+
+}
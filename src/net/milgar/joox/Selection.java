@@ -0,0 +1,21 @@
+package net.milgar.joox;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks the parents of a generation from a snapshot of the fitness of the
+ * current one. Implementations may keep scratch space between calls, so an
+ * instance must only be used by one population at a time.
+ */
+public interface Selection {
+
+	/**
+	 * Fills parents with the indices of the picked members, all at once.
+	 * Consecutive indices are crossed over together.
+	 * 
+	 * @param fitness
+	 *            Fitness of every member, indexed like the population.
+	 */
+	void select(float[] fitness, int[] parents, SplittableRandom rnd);
+
+}
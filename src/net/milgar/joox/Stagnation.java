@@ -0,0 +1,35 @@
+package net.milgar.joox;
+
+/**
+ * Stops when the best fitness has not improved for a number of generations.
+ */
+public class Stagnation implements TerminationCriterion {
+	private int generations;
+	private float bestFitness;
+	private int lastImprovement;
+
+	public Stagnation(int generations) {
+		if (generations < 1) {
+			throw new IllegalArgumentException("Generations must be at least 1: " + generations);
+		}
+		this.generations = generations;
+	}
+
+	@Override
+	public void reset() {
+		this.bestFitness = Float.NEGATIVE_INFINITY;
+		this.lastImprovement = 0;
+	}
+
+	@Override
+	public String check(GenerationSummary summary) {
+		if (summary.getBestFitness() > this.bestFitness) {
+			this.bestFitness = summary.getBestFitness();
+			this.lastImprovement = summary.getGeneration();
+		} else if (summary.getGeneration() - this.lastImprovement >= this.generations) {
+			return "No improvement for " + this.generations + " generations";
+		}
+		return null;
+	}
+
+}
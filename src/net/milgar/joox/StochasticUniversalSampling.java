@@ -0,0 +1,50 @@
+package net.milgar.joox;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fitness proportionate selection with evenly spaced pointers, so the number
+ * of times a member is picked stays close to its expected share. Fitness is
+ * shifted by the worst value first, as scores can be negative.
+ */
+public class StochasticUniversalSampling implements Selection {
+
+	@Override
+	public void select(float[] fitness, int[] parents, SplittableRandom rnd) {
+		float worst = fitness[0];
+		for (float f : fitness) {
+			worst = Math.min(worst, f);
+		}
+		double total = 0;
+		for (float f : fitness) {
+			total += f - worst;
+		}
+		if (total == 0) {
+			// All members are equally fit.
+			for (int p = 0; p < parents.length; p++) {
+				parents[p] = rnd.nextInt(fitness.length);
+			}
+			return;
+		}
+		double spacing = total / parents.length;
+		double pointer = rnd.nextDouble() * spacing;
+		double cumulative = fitness[0] - worst;
+		int member = 0;
+		for (int p = 0; p < parents.length; p++) {
+			while (cumulative <= pointer && member < fitness.length - 1) {
+				cumulative += fitness[++member] - worst;
+			}
+			parents[p] = member;
+			pointer += spacing;
+		}
+		// The pointers pick members in index order; shuffle them so that
+		// crossover pairs are random.
+		for (int p = parents.length - 1; p > 0; p--) {
+			int other = rnd.nextInt(p + 1);
+			int tmp = parents[p];
+			parents[p] = parents[other];
+			parents[other] = tmp;
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package net.milgar.joox;
+
+/**
+ * Stops once the best chromosome reaches a target fitness, by default the
+ * highest score first species counterpoint can get.
+ */
+public class TargetFitness implements TerminationCriterion {
+	private float target;
+
+	public TargetFitness() {
+		this(FirstSpecies.MAX_REWARD);
+	}
+
+	public TargetFitness(float target) {
+		this.target = target;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public String check(GenerationSummary summary) {
+		if (summary.getBestFitness() >= this.target) {
+			return "Target fitness " + this.target + " reached";
+		}
+		return null;
+	}
+
+}
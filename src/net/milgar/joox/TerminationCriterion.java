@@ -0,0 +1,29 @@
+package net.milgar.joox;
+
+/**
+ * Decides after each generation whether a genetic algorithm should stop
+ * before reaching its iteration count.
+ */
+public interface TerminationCriterion {
+
+	/**
+	 * Called before the first generation of a run, so that state from an
+	 * earlier run can be dropped.
+	 */
+	void reset();
+
+	/**
+	 * @return Why the run should stop after this generation, or null to go
+	 *         on.
+	 */
+	String check(GenerationSummary summary);
+
+	/**
+	 * @return Whether check reads the diversity of the summary, which is
+	 *         only computed when asked for.
+	 */
+	default boolean needsDiversity() {
+		return false;
+	}
+
+}
@@ -0,0 +1,34 @@
+package net.milgar.joox;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks each parent as the fittest of a few members drawn at random. Larger
+ * tournaments favour fitter members more strongly.
+ */
+public class TournamentSelection implements Selection {
+	private int size;
+
+	public TournamentSelection(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Tournament size must be at least 1: " + size);
+		}
+		this.size = size;
+	}
+
+	@Override
+	public void select(float[] fitness, int[] parents, SplittableRandom rnd) {
+		for (int p = 0; p < parents.length; p++) {
+			// Candidates are drawn with replacement, so there is no retrying.
+			int winner = rnd.nextInt(fitness.length);
+			for (int j = 1; j < this.size; j++) {
+				int candidate = rnd.nextInt(fitness.length);
+				if (fitness[candidate] > fitness[winner]) {
+					winner = candidate;
+				}
+			}
+			parents[p] = winner;
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package net.milgar.joox;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks parents uniformly at random from the fittest fraction of the members.
+ */
+public class TruncationSelection implements Selection {
+	private float fraction;
+	private float[] sorted;
+	private int[] eligible;
+
+	/**
+	 * @param fraction
+	 *            Share of the members, best first, that may become parents.
+	 */
+	public TruncationSelection(float fraction) {
+		if (!(fraction > 0 && fraction <= 1)) {
+			throw new IllegalArgumentException("Fraction must be in (0, 1]: " + fraction);
+		}
+		this.fraction = fraction;
+	}
+
+	@Override
+	public void select(float[] fitness, int[] parents, SplittableRandom rnd) {
+		if (this.sorted == null || this.sorted.length != fitness.length) {
+			this.sorted = new float[fitness.length];
+			this.eligible = new int[fitness.length];
+		}
+		System.arraycopy(fitness, 0, this.sorted, 0, fitness.length);
+		Arrays.sort(this.sorted);
+		int keep = Math.max(1, (int) Math.ceil(fitness.length * this.fraction));
+		float threshold = this.sorted[fitness.length - keep];
+		// Members tied with the threshold are all eligible.
+		int count = 0;
+		for (int i = 0; i < fitness.length; i++) {
+			if (fitness[i] >= threshold) {
+				this.eligible[count++] = i;
+			}
+		}
+		for (int p = 0; p < parents.length; p++) {
+			parents[p] = this.eligible[rnd.nextInt(count)];
+		}
+	}
+
+}
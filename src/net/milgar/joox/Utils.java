@@ -1,39 +1,18 @@
 package net.milgar.joox;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.List;
-import java.util.Random;
-
-import com.googlecode.charts4j.AxisLabelsFactory;
-import com.googlecode.charts4j.Color;
-import com.googlecode.charts4j.DataUtil;
-import com.googlecode.charts4j.Fills;
-import com.googlecode.charts4j.GCharts;
-import com.googlecode.charts4j.Line;
-import com.googlecode.charts4j.LineChart;
-import com.googlecode.charts4j.LineStyle;
-import com.googlecode.charts4j.Plot;
-import com.googlecode.charts4j.Plots;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
 
 public class Utils {
 
-	private static int[] SPECIES_DURATION = { 1, 2, 4 };
+	static final int[] SPECIES_DURATION = { 1, 2, 4 };
 
 	public enum Species {
 		First, Second
@@ -52,120 +31,129 @@ public class Utils {
 	}
 
 	public static String cantusFirmusToString(List<Integer> notes) {
-		/*
-		 * Given a list of notes as integers, will return the lilypond notes for
-		 * the cantus firmus.
-		 */
-		String result = "";
-		List<String> lilyPondNotes = new ArrayList<String>();
-		for (Integer note : notes) {
-			lilyPondNotes.add(translateNoteToLilypond(note));
-		}
+		StringBuilder result = new StringBuilder();
+		appendCantusFirmus(result, notes);
+		return result.toString();
+	}
 
+	/**
+	 * Given a list of notes as integers, appends the lilypond notes for the
+	 * cantus firmus.
+	 */
+	public static void appendCantusFirmus(StringBuilder out, List<Integer> notes) {
 		// Set the duration against the first note.
-		result = lilyPondNotes.get(0) + " 1 ";
-		lilyPondNotes.remove(0);
+		out.append(translateNoteToLilypond(notes.get(0))).append(" 1");
 		// Translate all the others.
-		result += String.join(" ", lilyPondNotes);
+		for (int i = 1; i < notes.size(); i++) {
+			out.append(' ').append(translateNoteToLilypond(notes.get(i)));
+		}
 		// End with a double bar.
-		result += " \\bar \"|.\"";
-		// Tidy up double spaces.
-		result = result.replaceAll("  ", " ");
-		return result;
+		out.append(" \\bar \"|.\"");
 	}
 
-	public static String getSimpleContrapunctus(List<Integer> notes, int duration) {
-		/*
-		 * Given a list of notes as integers and the duration to use, will
-		 * return the lilypond notes for the contrapunctus. Durations:
-		 * 1-semibreve, 2-minim, 4-crotchet
-		 */
-		String result = "";
-
-		List<String> lilyPondNotes = new ArrayList<String>();
-		for (Integer note : notes) {
-			lilyPondNotes.add(translateNoteToLilypond(note));
-		}
+	public static String getSimpleContrapunctus(Chromosome chromosome, int duration) {
+		StringBuilder result = new StringBuilder();
+		appendSimpleContrapunctus(result, chromosome, duration);
+		return result.toString();
+	}
+
+	/**
+	 * Given a chromosome and the duration to use, appends the lilypond notes
+	 * for the contrapunctus. Durations: 1-semibreve, 2-minim, 4-crotchet
+	 */
+	public static void appendSimpleContrapunctus(StringBuilder out, Chromosome chromosome, int duration) {
+		int size = chromosome.size();
 		// Set the duration against the first note.
-		result = lilyPondNotes.get(0) + " " + duration + " ";
+		out.append(translateNoteToLilypond(chromosome.getGene(0))).append(' ').append(duration);
 		// Translate all the others except the final two.
-		lilyPondNotes.remove(lilyPondNotes.size() - 1);
-		lilyPondNotes.remove(lilyPondNotes.size() - 1);
-		lilyPondNotes.remove(0);
-		result += String.join(" ", lilyPondNotes);
-
-		int[] a = { 1, 2, 3 };
-		ArrayList<Integer> b = new ArrayList<>();
-		b.add(4);
-		b.add(7);
-		b.add(11);
-		b.add(14);
+		for (int i = 1; i < size - 2; i++) {
+			out.append(' ').append(translateNoteToLilypond(chromosome.getGene(i)));
+		}
 
 		// Ensure the penultimate note is a semitone away IFF moving up to the
-		// final
-		// note. (Kinda hacky - would be easier in Lisp)
-		int final_note = notes.get(notes.size() - 1);
-		int penultimate_note = notes.get(notes.size() - 2);
-		String next_note = translateNoteToLilypond(penultimate_note);
-		if (final_note == penultimate_note + 1) {
-			// Check if the note isn't a C or an F
-			if (b.indexOf(final_note) == -1) {
-				// insert 'is' to sharpen the pitch of the note by a semitone.
-				result += " " + next_note.charAt(0) + "is";
-				for (int i = 1; i < next_note.length(); i++) {
-					result += next_note.charAt(i) + " ";
-				}
-			}
+		// final note.
+		int finalNote = chromosome.getGene(size - 1);
+		int penultimateNote = chromosome.getGene(size - 2);
+		String nextNote = translateNoteToLilypond(penultimateNote);
+		out.append(' ');
+		if (isSharpenedPenultimate(penultimateNote, finalNote)) {
+			// insert 'is' to sharpen the pitch of the note by a semitone.
+			out.append(nextNote.charAt(0)).append("is").append(nextNote, 1, nextNote.length());
 		} else {
-			result += " " + next_note;
+			out.append(nextNote);
 		}
 
 		// Ensure the final note is a semibreve.
-		result += " " + translateNoteToLilypond(final_note);
-		if (duration != 1) result += " 1";
+		out.append(' ').append(translateNoteToLilypond(finalNote));
+		if (duration != 1) out.append(" 1");
+	}
+
+	/**
+	 * @return True if the penultimate note is raised by a semitone, which it
+	 *         is when it steps up to the final note and the final note is not
+	 *         a C or an F, already a semitone above.
+	 */
+	public static boolean isSharpenedPenultimate(int penultimateNote, int finalNote) {
+		return finalNote == penultimateNote + 1 && finalNote != 4 && finalNote != 7 && finalNote != 11
+				&& finalNote != 14;
+	}
 
-		// Tidy up double spaces.
-		result = result.replace("  ", " ");
-		return result;
+	// Placeholders of the LilypondTemplate, in the order of their indices
+	// below.
+	private static final String[] TEMPLATE_FIELDS =
+			{ "$title", "$created_on", "$composer", "$contrapunctus", "$cantus_firmus" };
+	private static final int TITLE = 0;
+	private static final int CREATED_ON = 1;
+	private static final int COMPOSER = 2;
+	private static final int CONTRAPUNCTUS = 3;
+	private static final int CANTUS_FIRMUS = 4;
+
+	// Parsed on first use, then shared by every render.
+	private static class Template {
+		static final ScoreTemplate INSTANCE = ScoreTemplate.load("LilypondTemplate", TEMPLATE_FIELDS);
 	}
 
 	public static String render(int species, Chromosome chromosome, String date, String composer, String title) {
-		/*
-		 * Given an indication of the species (1-3), a list of notes for the
-		 * cantus_firmus and contrapunctus returns a string containing lilypond
-		 * code to render the musical information as PDF and MIDI files.
-		 */
-
-		String contrapunctus_notes = "";
-		if (species < 4) {
-			int duration = SPECIES_DURATION[species - 1];
-			contrapunctus_notes = getSimpleContrapunctus(chromosome.getGenes(), duration);
-		} else if (species == 4) {
-			// contrapunctus_notes = get_fourth_species(contrapunctus);
-		}
-
-		String temp = "";
+		StringBuilder result = new StringBuilder();
+		render(result, species, chromosome, date, composer, title);
+		return result.toString();
+	}
 
-		InputStream is = Chromosome.class.getResourceAsStream("LilypondTemplate");
-		BufferedReader r = new BufferedReader(new InputStreamReader(is));
-		String line = "";
-		try {
-			while ((line = r.readLine()) != null) {
-				temp += line + "\n";
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-			return "";
+	/**
+	 * Given an indication of the species (1-3), a list of notes for the
+	 * cantus_firmus and contrapunctus appends lilypond code to render the
+	 * musical information as PDF and MIDI files. Appends nothing if the
+	 * template cannot be read.
+	 */
+	public static void render(StringBuilder out, int species, Chromosome chromosome, String date, String composer,
+			String title) {
+		ScoreTemplate template = Template.INSTANCE;
+		if (template == null) {
+			return;
 		}
-		// System.out.println(contrapunctus_notes);
-
-		temp = temp.replace("$title", title);
-		temp = temp.replace("$created_on", date);
-		temp = temp.replace("$composer", composer);
-		temp = temp.replace("$contrapunctus", contrapunctus_notes);
-		temp = temp.replace("$cantus_firmus", cantusFirmusToString(chromosome.getCantusFirmus()));
-
-		return temp;
+		template.render(out, (placeholder, value) -> {
+			switch (placeholder) {
+			case TITLE:
+				value.append(title);
+				break;
+			case CREATED_ON:
+				value.append(date);
+				break;
+			case COMPOSER:
+				value.append(composer);
+				break;
+			case CONTRAPUNCTUS:
+				if (species < 4) {
+					appendSimpleContrapunctus(value, chromosome, SPECIES_DURATION[species - 1]);
+				} else if (species == 4) {
+					// get_fourth_species(contrapunctus);
+				}
+				break;
+			case CANTUS_FIRMUS:
+				appendCantusFirmus(value, chromosome.getCantusFirmus());
+				break;
+			}
+		});
 	}
 
 	/**
@@ -181,28 +169,20 @@ public class Utils {
 		return parallel;
 	}
 
-	public static Chromosome[] tournementSelection(List<Chromosome> population, Utils.Species species) {
-		int[] parrentIndex = { 0, 0 };
-		Chromosome[] parrentChoromosmes = { null, null };
-		Random rnd = new Random();
-
-		do {
-			for (int j = 0; j < 2; j++) {
-				int tournementCandidateFirst = 0, tournementCandidateSecond = 0;
-				do {
-					tournementCandidateFirst = rnd.nextInt(population.size());
-					tournementCandidateSecond = rnd.nextInt(population.size());
-				} while (tournementCandidateFirst == tournementCandidateSecond);
-				Chromosome chromosomeFirst = population.get(tournementCandidateFirst);
-				Chromosome chromosomeSecond = population.get(tournementCandidateSecond);
-				float fitnessFirst = chromosomeFirst.getFitness(species);
-				float fitnessSecond = chromosomeSecond.getFitness(species);
-				parrentIndex[j] = fitnessFirst > fitnessSecond ? tournementCandidateFirst : tournementCandidateSecond;
-				parrentChoromosmes[j] = fitnessFirst > fitnessSecond ? chromosomeFirst : chromosomeSecond;
-			}
-		} while (parrentIndex[0] == parrentIndex[1]);
-
-		return parrentChoromosmes;
+	/**
+	 * @return Two parents, each the winner of a tournament of two. Only the
+	 *         four candidates are scored, in the order of
+	 *         TournamentSelection(2).
+	 */
+	public static Chromosome[] tournementSelection(List<Chromosome> population, Utils.Species species,
+			SplittableRandom rnd) {
+		Chromosome[] parents = new Chromosome[2];
+		for (int p = 0; p < parents.length; p++) {
+			Chromosome first = population.get(rnd.nextInt(population.size()));
+			Chromosome second = population.get(rnd.nextInt(population.size()));
+			parents[p] = second.getFitness(species) > first.getFitness(species) ? second : first;
+		}
+		return parents;
 	}
 
 	public static String getTime() {
@@ -230,8 +210,10 @@ public class Utils {
 		try {
 			File handler = new File(executionPath);
 
-			Runtime rt = Runtime.getRuntime();
-			Process p1 = rt.exec(commands, null, handler);
+			// Pass the output on, so a chatty process cannot block on a full
+			// pipe.
+			ProcessBuilder builder = new ProcessBuilder(commands).directory(handler).inheritIO();
+			Process p1 = builder.start();
 
 			p1.waitFor();
 
@@ -245,74 +227,6 @@ public class Utils {
 		return true;
 	}
 
-	public static URL drawChart(List<Double>... fitness) {
-		// Defining Line
-		double minFitness = Double.MAX_VALUE;
-		double maxFitness = Double.MIN_VALUE;
-		List<Color> colors = new ArrayList<>();
-		colors.addAll(Arrays.asList(new Color[] { Color.RED, Color.BLUE, Color.ORANGE, Color.CYAN }));
-		for (List<Double> fit : fitness) {
-			if (minFitness > Collections.min(fit)) minFitness = Collections.min(fit);
-			if (maxFitness < Collections.max(fit)) maxFitness = Collections.max(fit);
-		}
-		List<Plot> plots = new ArrayList<>();
-		int i = 1;
-		for (List<Double> fit : fitness) {
-			Line line = Plots.newLine(DataUtil.scaleWithinRange(minFitness - 0.5, maxFitness + 0.5, fit));
-			line.setColor(colors.get(0));
-			line.setLegend(i++ + ". Sonuç");
-			line.setLineStyle(LineStyle.newLineStyle(3, 1, 0));
-			colors.remove(0);
-			plots.add(line);
-		}
-		// Defining chart.
-		final LineChart chart = GCharts.newLineChart(plots);
-		chart.setSize(400, 400);
-		chart.setTitle("Genetic Algorihm on Music Composition");
-		chart.addXAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(0, fitness[0].size(), fitness[0].size() / 4));
-		chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(minFitness - 0.5, maxFitness + 0.5));
-		chart.setGrid(25, 25, 5, 5);
-
-		// Defining background and chart fills.
-		chart.setBackgroundFill(Fills.newSolidFill(Color.LIGHTGREY));
-
-		String urlString = chart.toURLString();
-		System.out.println(urlString);
-		try {
-			URL url = new URL(urlString);
-			return url;
-		} catch (MalformedURLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return null;
-	}
-
-	public static boolean downloadAndSaveImage(URL imageUrl, String path) {
-		try {
-			InputStream in;
-			in = new BufferedInputStream(imageUrl.openStream());
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			byte[] buf = new byte[1024];
-			int n = 0;
-			while (-1 != (n = in.read(buf))) {
-				out.write(buf, 0, n);
-			}
-			out.close();
-			in.close();
-			byte[] response = out.toByteArray();
-
-			FileOutputStream fos;
-			fos = new FileOutputStream(path);
-			fos.write(response);
-			fos.close();
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			return false;
-		}
-		return true;
-	}
-
 	public static void createLilypondFiles(Chromosome chromosome, String lilypondFileName, String directory,
 			String currentDateAndTime, String composer, String title) {
 
@@ -322,4 +236,17 @@ public class Utils {
 		Utils.execSystemCommand(new String[] { "lilypond", lilypondFileName }, directory);
 	}
 
+	/**
+	 * Writes the .ly file and queues it on the renderer instead of waiting for
+	 * lilypond.
+	 */
+	public static CompletableFuture<Boolean> createLilypondFiles(Chromosome chromosome, String lilypondFileName,
+			String directory, String currentDateAndTime, String composer, String title, LilypondRenderer renderer) {
+
+		String lilyFile = Utils.render(1, chromosome, currentDateAndTime, composer, title);
+		Utils.saveStringAsFile(lilyFile, directory + lilypondFileName);
+
+		return renderer.render(lilypondFileName, directory);
+	}
+
 }
@@ -0,0 +1,61 @@
+package net.milgar.joox;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Runs the body rules across as many genomes as the widest int vector of the
+ * CPU holds, one note pair at a time. Needs jdk.incubator.vector, so it is
+ * kept apart from the other sources and only loaded when it is there.
+ */
+class VectorFitnessKernel implements FitnessKernel {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public void tally(int[] notes, int stride, int count, int[] cantusFirmus, int[] counters) {
+		int length = cantusFirmus.length;
+		int bound = SPECIES.loopBound(count);
+		for (int g = 0; g < bound; g += SPECIES.length()) {
+			IntVector parallelFifths = IntVector.zero(SPECIES);
+			IntVector repeats = IntVector.zero(SPECIES);
+			IntVector thirds = IntVector.zero(SPECIES);
+			IntVector sixths = IntVector.zero(SPECIES);
+			IntVector parallelMotion = IntVector.zero(SPECIES);
+			IntVector jumpContour = IntVector.zero(SPECIES);
+			// The pair at 0 compares the first note against the last one.
+			for (int i = 0; i < length - 1; i++) {
+				int last = i == 0 ? length - 1 : i - 1;
+				IntVector lastNote = IntVector.fromArray(SPECIES, notes, last * stride + g);
+				IntVector note = IntVector.fromArray(SPECIES, notes, i * stride + g);
+				IntVector lastInterval = lastNote.sub(cantusFirmus[last]);
+				IntVector interval = note.sub(cantusFirmus[i]);
+
+				VectorMask<Integer> lastSixth = lastInterval.eq(4);
+				VectorMask<Integer> sixth = interval.eq(4);
+				VectorMask<Integer> lastFifth = lastSixth.or(lastInterval.eq(7));
+				VectorMask<Integer> fifth = sixth.or(interval.eq(7));
+				parallelFifths = parallelFifths.add(1, fifth.and(lastFifth));
+				repeats = repeats.add(1, note.eq(lastNote));
+				thirds = thirds.add(1, interval.eq(2).and(lastInterval.eq(2)));
+				sixths = sixths.add(1, sixth.and(lastSixth));
+				// The cantus firmus moves the same way in every lane.
+				if (cantusFirmus[last] < cantusFirmus[i]) {
+					parallelMotion = parallelMotion.add(1, lastNote.lt(note));
+				} else if (cantusFirmus[last] > cantusFirmus[i]) {
+					parallelMotion = parallelMotion.add(1, lastNote.compare(VectorOperators.GT, note));
+				}
+				jumpContour = jumpContour.add(note.sub(lastNote).abs().sub(2).max(0));
+			}
+			parallelFifths.intoArray(counters, PARALLEL_FIFTHS * stride + g);
+			repeats.intoArray(counters, REPEATS * stride + g);
+			thirds.intoArray(counters, THIRDS * stride + g);
+			sixths.intoArray(counters, SIXTHS * stride + g);
+			parallelMotion.intoArray(counters, PARALLEL_MOTION * stride + g);
+			jumpContour.intoArray(counters, JUMP_CONTOUR * stride + g);
+		}
+		ScalarFitnessKernel.tally(notes, stride, bound, count, cantusFirmus, counters);
+	}
+
+}